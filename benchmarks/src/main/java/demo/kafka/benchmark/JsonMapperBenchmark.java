@@ -0,0 +1,79 @@
+package demo.kafka.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.mapper.JsonMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Maps the inbound event payload, and builds the outbound payload, as done for every event consumed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonMapperBenchmark {
+
+    private String payload;
+    private byte[] payloadBytes;
+    private UUID instanceId;
+
+    @Setup
+    public void setUp() {
+        payload = JsonMapper.writeToJson(DemoInboundEvent.builder().id(UUID.randomUUID().toString()).data("event data").build());
+        payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        instanceId = UUID.randomUUID();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public DemoInboundEvent readFromJson() {
+        return JsonMapper.readFromJson(payload, DemoInboundEvent.class);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public DemoInboundEvent readFromJson_8Threads() {
+        return JsonMapper.readFromJson(payload, DemoInboundEvent.class);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public DemoInboundEvent readFromJsonBytes() {
+        return JsonMapper.readFromJson(payloadBytes, DemoInboundEvent.class);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public DemoInboundEvent readFromJsonBytes_8Threads() {
+        return JsonMapper.readFromJson(payloadBytes, DemoInboundEvent.class);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String buildOutboundPayload() {
+        return KafkaClient.buildPayload(instanceId, "event data");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String buildOutboundPayload_8Threads() {
+        return KafkaClient.buildPayload(instanceId, "event data");
+    }
+}
@@ -0,0 +1,82 @@
+package demo.kafka.consumer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+
+/**
+ * Compares the parallel listener lanes on platform threads and on virtual threads, processing records that each block
+ * for a millisecond, standing in for the thirdparty call and database round trips.
+ *
+ * The virtual thread runs require Java 21.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyOrderedExecutorBenchmark {
+
+    private static final int RECORDS = 1024;
+    private static final String LISTENER = "KeyOrderedExecutorBenchmark";
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    @Param({"16", "256", "1024"})
+    public int lanes;
+
+    private KeyOrderedExecutor executor;
+
+    @Setup
+    public void setUp() throws Exception {
+        final KafkaDemoProperties properties = new KafkaDemoProperties();
+        properties.getVirtualThreads().setEnabled(virtualThreads);
+        properties.getParallelListener().setLanes(lanes);
+        properties.getParallelListener().setLaneCapacity(RECORDS);
+        properties.getParallelListener().setMaxInFlight(RECORDS);
+        // No listener containers are registered, so there are none to pause should a lane fill.
+        executor = new KeyOrderedExecutor(properties, null, new KafkaListenerEndpointRegistry(), new SimpleMeterRegistry());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.destroy();
+    }
+
+    /**
+     * Each operation is a poll of records, with distinct keys, processed to completion.
+     */
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void processRecords() throws InterruptedException {
+        final CountDownLatch acknowledged = new CountDownLatch(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            executor.execute(LISTENER, "key-" + i, 0, acknowledged::countDown, () -> {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        acknowledged.await();
+    }
+}
@@ -0,0 +1,206 @@
+package demo.kafka.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.cache.ProcessedEventCache;
+import demo.kafka.cache.ThirdpartyResponseCache;
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.event.DemoInboundEventRecord;
+import demo.kafka.event.EventSource;
+import demo.kafka.event.EventTimestamps;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.metrics.ProcessingMetrics;
+import demo.kafka.properties.KafkaDemoProperties;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Processes inbound events through DemoService's idempotent outbox entry points, singly and in batches, each in its own
+ * transaction, against H2 in PostgreSQL mode as a local stand-in for Postgres.  Each new event is deduplicated and its
+ * outbox event written, whereas a duplicate is only deduplicated.  Absolute numbers are not representative of Postgres,
+ * but are comparable between releases.
+ *
+ * Only the persistence beans are started.  The thirdparty is stubbed to respond immediately, and DemoService's Kafka
+ * client is created but never used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+    private static final String KEY = "benchmark-key";
+    private static final DemoInboundEvent EVENT = DemoInboundEvent.builder().id("benchmark").data("event data").build();
+    private static final EventSource SOURCE = new EventSource("demo-idempotent-inbound-topic", 0, 0);
+
+    @Param({"true", "false"})
+    public boolean processedEventCacheEnabled;
+
+    private ConfigurableApplicationContext context;
+    private DemoService demoService;
+    private JdbcTemplate jdbcTemplate;
+    private UUID processedEventId;
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration(exclude = KafkaAutoConfiguration.class)
+    @EntityScan("demo.kafka.domain")
+    @EnableJpaRepositories("demo.kafka.repository")
+    @Import({KafkaDemoProperties.class, DemoService.class, ProcessedEventCache.class, ThirdpartyResponseCache.class,
+            ProcessingMetrics.class, OutboxRetentionService.class, KafkaClient.class})
+    static class PersistenceConfiguration {
+
+        @Bean
+        public KafkaTemplate<String, String> kafkaTemplate() {
+            return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(Map.of(
+                    ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092",
+                    ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+                    ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class)));
+        }
+
+        @Bean
+        public RestTemplate restTemplate() {
+            return new RestTemplate() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <T> ResponseEntity<T> getForEntity(String url, Class<T> responseType, Object... uriVariables) {
+                    return (ResponseEntity<T>) ResponseEntity.ok("thirdparty response");
+                }
+            };
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(PersistenceConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        // The service's application.yml configures Postgres, so is not loaded.
+                        "spring.config.name=benchmark",
+                        "spring.datasource.url=jdbc:h2:mem:benchmark;SCHEMA_SEARCH_PATH=kafka_demo_idempotent_consumer;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                        "spring.datasource.hikari.maximum-pool-size=16",
+                        "spring.flyway.schemas=kafka_demo_idempotent_consumer",
+                        "spring.flyway.locations=classpath:db/migration/common,classpath:db/migration/h2",
+                        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                        "spring.jpa.hibernate.ddl-auto=none",
+                        "spring.jpa.properties.hibernate.default_schema=kafka_demo_idempotent_consumer",
+                        "spring.jpa.properties.hibernate.jdbc.batch_size=50",
+                        "kafkademo.processedEventCache.enabled=" + processedEventCacheEnabled,
+                        "kafkademo.processedEventCache.maxMemory=16MB",
+                        "logging.level.root=WARN")
+                .run();
+        demoService = context.getBean(DemoService.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+        processedEventId = UUID.randomUUID();
+        process(processedEventId);
+    }
+
+    /**
+     * Keeps the tables from growing across iterations.
+     */
+    @Setup(Level.Iteration)
+    public void truncate() {
+        jdbcTemplate.update("DELETE FROM processed_event WHERE eventid <> ?", processedEventId);
+        jdbcTemplate.update("DELETE FROM outbox_event");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean processNewEvent() {
+        return process(UUID.randomUUID());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean processNewEvent_8Threads() {
+        return process(UUID.randomUUID());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean processDuplicateEvent() {
+        return process(processedEventId);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean processDuplicateEvent_8Threads() {
+        return process(processedEventId);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BatchResult processBatch() {
+        return processBatch(BATCH_SIZE);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public BatchResult processBatch_8Threads() {
+        return processBatch(BATCH_SIZE);
+    }
+
+    private boolean process(UUID eventId) {
+        return demoService.processIdempotentAndOutbox(eventId.toString(), KEY, EVENT, SOURCE, timestamps());
+    }
+
+    private BatchResult processBatch(int size) {
+        final List<DemoInboundEventRecord> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            records.add(DemoInboundEventRecord.builder()
+                    .eventId(UUID.randomUUID())
+                    .key(KEY)
+                    .event(EVENT)
+                    .source(SOURCE)
+                    .timestamps(timestamps())
+                    .build());
+        }
+        return demoService.processIdempotentAndOutboxBatch(records);
+    }
+
+    private static EventTimestamps timestamps() {
+        final long now = System.currentTimeMillis();
+        return new EventTimestamps(now, now, now);
+    }
+}
@@ -1,12 +1,18 @@
 package demo.kafka;
 
+import demo.kafka.properties.KafkaDemoProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class KafkaDemoApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(KafkaDemoApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(KafkaDemoApplication.class, args);
+		// A training run loads the classes used to start up, then exits so that the JVM writes the CDS archive.
+		if (context.getBean(KafkaDemoProperties.class).getStartup().isExitWhenReady()) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 }
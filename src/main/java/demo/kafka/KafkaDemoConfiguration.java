@@ -1,11 +1,28 @@
 package demo.kafka;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import demo.kafka.consumer.AssignedPartitionsCacheLoader;
+import demo.kafka.consumer.DuplicateEventInterceptor;
+import demo.kafka.consumer.FlowController;
+import demo.kafka.lib.VirtualThreads;
+import demo.kafka.properties.KafkaDemoProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.kafka.clients.admin.AdminClientConfig;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
@@ -13,53 +30,241 @@ import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.BatchInterceptor;
+import org.springframework.kafka.listener.CompositeBatchInterceptor;
+import org.springframework.kafka.listener.CompositeRecordInterceptor;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.RecordInterceptor;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.web.client.RestTemplate;
 
 @Slf4j
 @EntityScan("demo.kafka.domain")
 @EnableJpaRepositories("demo.kafka.repository")
 @EnableTransactionManagement
+@EnableScheduling
 @ComponentScan(basePackages = {"demo.kafka"})
 @Configuration
 public class KafkaDemoConfiguration {
 
+    /**
+     * When Kafka transactions are enabled the container starts a Kafka transaction for each record, and sends the consumer
+     * offsets with it.  The KafkaTransactionManager is not declared as a bean, so that it does not displace the JPA
+     * transaction manager used by @Transactional.
+     */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory(final ConsumerFactory<String, String> consumerFactory) {
-        final ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory();
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaListenerContainerFactory(final ConsumerFactory<String, byte[]> consumerFactory,
+                                                                                                 final ProducerFactory<String, String> producerFactory,
+                                                                                                 final KafkaDemoProperties properties,
+                                                                                                 final FlowController flowController,
+                                                                                                 final DuplicateEventInterceptor duplicateEventInterceptor,
+                                                                                                 final AssignedPartitionsCacheLoader cacheLoader) {
+        final ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory();
         factory.setConsumerFactory(consumerFactory);
+        configureListenerThreads(factory, properties);
+        configureConcurrency(factory, properties);
+        configureCacheLoading(factory, cacheLoader);
+        factory.setContainerCustomizer(container -> {
+            // Duplicates are dropped first, so are not measured by the flow controller.
+            final List<RecordInterceptor<String, byte[]>> interceptors = new ArrayList<>();
+            if (duplicateEventInterceptor.isEnabled(container)) {
+                interceptors.add(duplicateEventInterceptor.recordInterceptor(container));
+            }
+            if (flowController.isEnabled()) {
+                interceptors.add(flowController.recordInterceptor(container));
+            }
+            if (interceptors.size() == 1) {
+                container.setRecordInterceptor(interceptors.get(0));
+            } else if (interceptors.size() > 1) {
+                container.setRecordInterceptor(new CompositeRecordInterceptor<>(interceptors.toArray(new RecordInterceptor[0])));
+            }
+            // A dropped duplicate's offset is then sent with the Kafka transaction, as it cannot be sent outside one.
+            container.setInterceptBeforeTx(!properties.getKafkaTransactions().isEnabled());
+        });
+        if (properties.getKafkaTransactions().isEnabled()) {
+            final KafkaTransactionManager<String, String> kafkaTransactionManager = new KafkaTransactionManager<>(producerFactory);
+            // Allows work to be deferred until the Kafka transaction commits.
+            kafkaTransactionManager.setTransactionSynchronization(AbstractPlatformTransactionManager.SYNCHRONIZATION_ON_ACTUAL_TRANSACTION);
+            factory.getContainerProperties().setTransactionManager(kafkaTransactionManager);
+        }
         return factory;
     }
 
+    /**
+     * Delivers the records from each poll to the listener as a single list, so they can be processed in one transaction.
+     * The container commits the batch once the listener returns, unless flow control is enabled, when the listener
+     * acknowledges the batch itself, or negatively acknowledges the tail of it to have those records redelivered.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaBatchListenerContainerFactory(final ConsumerFactory<String, byte[]> consumerFactory,
+                                                                                                      final KafkaDemoProperties properties,
+                                                                                                      final FlowController flowController,
+                                                                                                      final DuplicateEventInterceptor duplicateEventInterceptor,
+                                                                                                      final AssignedPartitionsCacheLoader cacheLoader) {
+        final ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory();
+        factory.setConsumerFactory(consumerFactory);
+        configureListenerThreads(factory, properties);
+        configureConcurrency(factory, properties);
+        configureCacheLoading(factory, cacheLoader);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(flowController.isEnabled() ? ContainerProperties.AckMode.MANUAL : ContainerProperties.AckMode.BATCH);
+        factory.setContainerCustomizer(container -> {
+            // Duplicates are removed first, so the flow controller only limits the batch to the records to be processed.
+            final List<BatchInterceptor<String, byte[]>> interceptors = new ArrayList<>();
+            if (duplicateEventInterceptor.isEnabled(container)) {
+                interceptors.add(duplicateEventInterceptor.batchInterceptor(container));
+            }
+            if (flowController.isEnabled()) {
+                interceptors.add(flowController.batchInterceptor(container));
+            }
+            if (interceptors.size() == 1) {
+                container.setBatchInterceptor(interceptors.get(0));
+            } else if (interceptors.size() > 1) {
+                container.setBatchInterceptor(new CompositeBatchInterceptor<>(interceptors.toArray(new BatchInterceptor[0])));
+            }
+        });
+        return factory;
+    }
+
+    /**
+     * Records are acknowledged as the key ordered lanes complete them, which may be out of order.  With async acks the
+     * container only commits the offset up to the first record not yet acknowledged.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaParallelListenerContainerFactory(final ConsumerFactory<String, byte[]> consumerFactory,
+                                                                                                         final KafkaDemoProperties properties,
+                                                                                                         final AssignedPartitionsCacheLoader cacheLoader) {
+        final ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory();
+        factory.setConsumerFactory(consumerFactory);
+        configureListenerThreads(factory, properties);
+        configureConcurrency(factory, properties);
+        configureCacheLoading(factory, cacheLoader);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setAsyncAcks(true);
+        return factory;
+    }
+
+    /**
+     * Starts each listener container with the minimum concurrency, when it is scaled with the lag.
+     */
+    private static void configureConcurrency(final ConcurrentKafkaListenerContainerFactory<String, byte[]> factory, final KafkaDemoProperties properties) {
+        if (properties.getListenerConcurrency().isEnabled()) {
+            factory.setConcurrency(properties.getListenerConcurrency().getMinConcurrency());
+        }
+    }
+
+    /**
+     * Runs the listener containers' consumer threads on virtual threads when enabled.  Transactions remain bound to the
+     * thread processing the record, as each virtual thread has its own thread locals.
+     */
+    private static void configureListenerThreads(final ConcurrentKafkaListenerContainerFactory<String, byte[]> factory, final KafkaDemoProperties properties) {
+        if (properties.getVirtualThreads().isEnabled()) {
+            factory.getContainerProperties().setListenerTaskExecutor(
+                    new SimpleAsyncTaskExecutor(VirtualThreads.threadFactory(true, "kafka-listener-")));
+        }
+    }
+
+    /**
+     * Loads the recently processed event Ids of each partition into the processed event cache as it is assigned.
+     */
+    private static void configureCacheLoading(final ConcurrentKafkaListenerContainerFactory<String, byte[]> factory, final AssignedPartitionsCacheLoader cacheLoader) {
+        if (cacheLoader.isEnabled()) {
+            factory.getContainerProperties().setConsumerRebalanceListener(cacheLoader);
+        }
+    }
+
     @Bean
     public KafkaTemplate<String, String> kafkaTemplate(final ProducerFactory<String, String> producerFactory) {
-        return new KafkaTemplate<>(producerFactory);
+        final KafkaTemplate<String, String> kafkaTemplate = new KafkaTemplate<>(producerFactory);
+        // The batch listeners and the outbox relay still send outside of a Kafka transaction.
+        kafkaTemplate.setAllowNonTransactional(true);
+        return kafkaTemplate;
     }
 
+    /**
+     * Creates the topics declared as beans, such as the retry topics, on the same cluster as the consumers and producers.
+     */
     @Bean
-    public ConsumerFactory<String, String> consumerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers,
-                                                           @Value("${kafka.consumer.maxPollIntervalMs}") final String maxPollIntervalMs) {
+    public KafkaAdmin kafkaAdmin(@Value("${kafka.bootstrap-servers}") final String bootstrapServers) {
+        return new KafkaAdmin(Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers));
+    }
+
+    @Bean
+    public ConsumerFactory<String, byte[]> consumerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers,
+                                                           @Value("${kafka.consumer.maxPollIntervalMs}") final String maxPollIntervalMs,
+                                                           @Value("${kafka.consumer.maxPollRecords}") final String maxPollRecords,
+                                                           final KafkaDemoProperties properties) {
         final Map<String, Object> config = new HashMap<>();
         config.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         config.put(ConsumerConfig.GROUP_ID_CONFIG, "demo-kafka");
         config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        // Payloads are mapped straight from their bytes, rather than first decoded to a String.
+        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
         config.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, maxPollIntervalMs);
+        config.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        if (properties.getKafkaTransactions().isEnabled()) {
+            // Only consume events from committed transactions, as this service's own outbound events may be consumed.
+            config.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        }
         return new DefaultKafkaConsumerFactory<>(config);
     }
 
     @Bean
-    public ProducerFactory<String, String> producerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers) {
+    public ProducerFactory<String, String> producerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers,
+                                                           @Value("${kafka.producer.lingerMs}") final String lingerMs,
+                                                           @Value("${kafka.producer.batchSize}") final String batchSize,
+                                                           final KafkaDemoProperties properties) {
         final Map<String, Object> config = new HashMap<>();
         config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        return new DefaultKafkaProducerFactory<>(config);
+        config.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        config.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        final DefaultKafkaProducerFactory<String, String> factory = new DefaultKafkaProducerFactory<>(config);
+        if (properties.getKafkaTransactions().isEnabled()) {
+            factory.setTransactionIdPrefix(properties.getKafkaTransactions().getTransactionIdPrefix() + properties.getInstanceId() + "-");
+        }
+        return factory;
+    }
+
+    /**
+     * Shared by every call to the thirdparty service, so that connections are pooled and kept alive between calls.
+     * Timeouts surface as a ResourceAccessException, and so are retried.
+     */
+    @Bean
+    public RestTemplate restTemplate(final KafkaDemoProperties properties) {
+        final KafkaDemoProperties.ThirdpartyClient config = properties.getThirdpartyClient();
+        final PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(config.getMaxConnections())
+                .setMaxConnPerRoute(config.getMaxConnectionsPerRoute())
+                .setDefaultSocketConfig(SocketConfig.custom()
+                        .setSoTimeout(Timeout.ofMilliseconds(config.getReadTimeout().toMillis()))
+                        .build())
+                .build();
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(config.getConnectTimeout().toMillis()))
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(config.getConnectionRequestTimeout().toMillis()))
+                .setResponseTimeout(Timeout.ofMilliseconds(config.getReadTimeout().toMillis()))
+                .build();
+        final CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(config.getIdleTimeout().toMillis()))
+                .build();
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
     }
 }
@@ -0,0 +1,121 @@
+package demo.kafka.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size set of UUIDs, each held as its two longs in an open addressing table, so no UUID objects or boxed
+ * entries are retained.
+ *
+ * The table is split into buckets of eight slots.  A UUID is probed for only within the bucket it hashes to, and when
+ * a bucket is full the next insert evicts the bucket's entries in turn, so the oldest are evicted first.  The nil UUID
+ * marks an empty slot and so is never held.
+ *
+ * Buckets are guarded by striped locks, so that a reader never sees a half-written entry.
+ */
+public class BoundedUuidSet {
+
+    public static final int BYTES_PER_ENTRY = 2 * Long.BYTES;
+
+    static final int SLOTS_PER_BUCKET = 8;
+    private static final int MAX_LOCKS = 256;
+
+    private final long[] mostSigBits;
+    private final long[] leastSigBits;
+    private final byte[] nextVictims;
+    private final int bucketMask;
+    private final Object[] locks;
+    private final int lockMask;
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * @param maxEntries the upper bound on entries, rounded down to a power of two and to at least one bucket.
+     */
+    public BoundedUuidSet(long maxEntries) {
+        final int buckets = Integer.highestOneBit((int) Math.max(1, Math.min(Integer.MAX_VALUE / SLOTS_PER_BUCKET, maxEntries / SLOTS_PER_BUCKET)));
+        this.mostSigBits = new long[buckets * SLOTS_PER_BUCKET];
+        this.leastSigBits = new long[buckets * SLOTS_PER_BUCKET];
+        this.nextVictims = new byte[buckets];
+        this.bucketMask = buckets - 1;
+        this.locks = new Object[Math.min(buckets, MAX_LOCKS)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.lockMask = locks.length - 1;
+    }
+
+    public boolean contains(long msb, long lsb) {
+        if (msb == 0 && lsb == 0) {
+            return false;
+        }
+        final int bucket = bucket(msb, lsb);
+        final int start = bucket * SLOTS_PER_BUCKET;
+        synchronized (locks[bucket & lockMask]) {
+            return indexOf(start, msb, lsb) >= 0;
+        }
+    }
+
+    /**
+     * @return true if the UUID was added, or false if it was already present.
+     */
+    public boolean add(long msb, long lsb) {
+        if (msb == 0 && lsb == 0) {
+            return false;
+        }
+        final int bucket = bucket(msb, lsb);
+        final int start = bucket * SLOTS_PER_BUCKET;
+        synchronized (locks[bucket & lockMask]) {
+            if (indexOf(start, msb, lsb) >= 0) {
+                return false;
+            }
+            for (int i = start; i < start + SLOTS_PER_BUCKET; i++) {
+                if (mostSigBits[i] == 0 && leastSigBits[i] == 0) {
+                    mostSigBits[i] = msb;
+                    leastSigBits[i] = lsb;
+                    size.increment();
+                    return true;
+                }
+            }
+            final int victim = nextVictims[bucket];
+            nextVictims[bucket] = (byte) ((victim + 1) % SLOTS_PER_BUCKET);
+            mostSigBits[start + victim] = msb;
+            leastSigBits[start + victim] = lsb;
+            evictions.increment();
+            return true;
+        }
+    }
+
+    public int capacity() {
+        return mostSigBits.length;
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private int indexOf(int start, long msb, long lsb) {
+        for (int i = start; i < start + SLOTS_PER_BUCKET; i++) {
+            if (mostSigBits[i] == msb && leastSigBits[i] == lsb) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Applies the MurmurHash3 finalizer, so that UUIDs whose high bits are a timestamp still spread across buckets.
+     */
+    private int bucket(long msb, long lsb) {
+        long h = msb ^ Long.rotateLeft(lsb, 32);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & bucketMask;
+    }
+}
@@ -0,0 +1,152 @@
+package demo.kafka.cache;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import demo.kafka.event.EventSource;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Holds the Ids of recently processed events in memory, so that duplicates can be rejected without a database round
+ * trip.
+ *
+ * An event Id is only added once the transaction that recorded it has committed, so an event whose processing was
+ * rolled back is never rejected.  A miss is not proof that the event is new, and must still be checked against the
+ * processed_event table.
+ *
+ * The Ids of the events most recently processed from a partition are also loaded as this instance is assigned the
+ * partition, as any record redelivered after a rebalance is most likely one of those, processed by the previous
+ * owner.  They are dropped once the partition is revoked.  They are held by topic in an array indexed by partition, so
+ * that looking them up allocates nothing, and in a BoundedUuidSet, so no UUID objects are retained.
+ */
+@Slf4j
+@Component
+public class ProcessedEventCache {
+
+    private static final String CACHE_NAME = "processedEvent";
+    private static final String PARTITION_CACHE_NAME = "processedEventByPartition";
+
+    private final BoundedUuidSet processedEventIds;
+    // Replaced rather than updated as partitions are assigned and revoked, so that lookups need no lock.
+    private final Map<String, BoundedUuidSet[]> partitionEventIds = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ProcessedEventCache(final KafkaDemoProperties properties, final MeterRegistry meterRegistry) {
+        final KafkaDemoProperties.ProcessedEventCache config = properties.getProcessedEventCache();
+        if (config.isEnabled()) {
+            processedEventIds = new BoundedUuidSet(config.getMaxMemory().toBytes() / BoundedUuidSet.BYTES_PER_ENTRY);
+            log.info("Processed event cache enabled with capacity: {}", processedEventIds.capacity());
+            FunctionCounter.builder("cache.gets", hits, LongAdder::sum).tags("cache", CACHE_NAME, "result", "hit").register(meterRegistry);
+            FunctionCounter.builder("cache.gets", misses, LongAdder::sum).tags("cache", CACHE_NAME, "result", "miss").register(meterRegistry);
+            FunctionCounter.builder("cache.evictions", processedEventIds, BoundedUuidSet::evictionCount).tag("cache", CACHE_NAME).register(meterRegistry);
+            Gauge.builder("cache.size", processedEventIds, BoundedUuidSet::size).tag("cache", CACHE_NAME).register(meterRegistry);
+            Gauge.builder("cache.size", partitionEventIds, ids -> ids.values().stream()
+                            .flatMap(Arrays::stream).filter(Objects::nonNull).mapToLong(BoundedUuidSet::size).sum())
+                    .tag("cache", PARTITION_CACHE_NAME).register(meterRegistry);
+        } else {
+            processedEventIds = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return processedEventIds != null;
+    }
+
+    public boolean isProcessed(final UUID eventId) {
+        return isProcessed(eventId, null);
+    }
+
+    /**
+     * @param source the partition the event was consumed from, whose loaded event Ids are also checked.
+     */
+    public boolean isProcessed(final UUID eventId, final EventSource source) {
+        if (processedEventIds == null) {
+            return false;
+        }
+        final long msb = eventId.getMostSignificantBits();
+        final long lsb = eventId.getLeastSignificantBits();
+        if (processedEventIds.contains(msb, lsb) || source != null && isPartitionProcessed(source, msb, lsb)) {
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        return false;
+    }
+
+    private boolean isPartitionProcessed(final EventSource source, final long msb, final long lsb) {
+        final BoundedUuidSet[] partitions = partitionEventIds.get(source.getTopic());
+        final BoundedUuidSet ids = partitions != null && source.getPartition() < partitions.length ? partitions[source.getPartition()] : null;
+        return ids != null && ids.contains(msb, lsb);
+    }
+
+    /**
+     * Holds the Ids of events already processed from the partition, until it is revoked.  The set is sized at two to four
+     * times the Ids, so that few if any are evicted, and any that are still fall back to the processed_event table.
+     */
+    public synchronized void addPartition(final TopicPartition partition, final Collection<UUID> eventIds) {
+        if (processedEventIds != null) {
+            final BoundedUuidSet ids = new BoundedUuidSet(4L * Integer.highestOneBit(Math.max(1, eventIds.size())));
+            eventIds.forEach(eventId -> ids.add(eventId.getMostSignificantBits(), eventId.getLeastSignificantBits()));
+            final BoundedUuidSet[] partitions = partitionEventIds.getOrDefault(partition.topic(), new BoundedUuidSet[0]);
+            final BoundedUuidSet[] updated = Arrays.copyOf(partitions, Math.max(partitions.length, partition.partition() + 1));
+            updated[partition.partition()] = ids;
+            partitionEventIds.put(partition.topic(), updated);
+        }
+    }
+
+    public synchronized void removePartition(final TopicPartition partition) {
+        final BoundedUuidSet[] partitions = partitionEventIds.get(partition.topic());
+        if (partitions == null || partition.partition() >= partitions.length) {
+            return;
+        }
+        final BoundedUuidSet[] updated = partitions.clone();
+        updated[partition.partition()] = null;
+        if (Arrays.stream(updated).allMatch(Objects::isNull)) {
+            partitionEventIds.remove(partition.topic());
+        } else {
+            partitionEventIds.put(partition.topic(), updated);
+        }
+    }
+
+    public void addAfterCommit(final UUID eventId) {
+        addAfterCommit(List.of(eventId));
+    }
+
+    /**
+     * Adds the event Ids once the current transaction commits, or immediately if there is no transaction.
+     */
+    public void addAfterCommit(final Collection<UUID> eventIds) {
+        if (processedEventIds == null || eventIds.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            add(eventIds);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                add(eventIds);
+            }
+        });
+    }
+
+    private void add(final Collection<UUID> eventIds) {
+        eventIds.forEach(eventId -> processedEventIds.add(eventId.getMostSignificantBits(), eventId.getLeastSignificantBits()));
+    }
+}
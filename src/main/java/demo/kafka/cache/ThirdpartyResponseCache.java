@@ -0,0 +1,75 @@
+package demo.kafka.cache;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches the successful responses of the thirdparty service by key, for a short TTL.
+ *
+ * Concurrent calls for the same key share a single in-flight request: the first caller makes the call on its own thread
+ * and the others wait on its result.  A failed call (retryable or not) is passed to every caller waiting on it, and is
+ * never cached, so the next call for the key is made afresh.
+ */
+@Slf4j
+@Component
+public class ThirdpartyResponseCache {
+
+    private static final String CACHE_NAME = "thirdpartyResponse";
+
+    private final AsyncCache<String, ResponseEntity<String>> responses;
+
+    public ThirdpartyResponseCache(final KafkaDemoProperties properties, final MeterRegistry meterRegistry) {
+        final KafkaDemoProperties.ThirdpartyResponseCache config = properties.getThirdpartyResponseCache();
+        if (config.isEnabled()) {
+            responses = Caffeine.newBuilder()
+                    .expireAfterWrite(config.getTtl())
+                    .maximumSize(config.getMaximumSize())
+                    .recordStats()
+                    .buildAsync();
+            log.info("Thirdparty response cache enabled with ttl: {}", config.getTtl());
+            CaffeineCacheMetrics.monitor(meterRegistry, responses, CACHE_NAME, List.<Tag>of());
+        } else {
+            responses = null;
+        }
+    }
+
+    /**
+     * @return the cached response for the key, or otherwise the response from the call, which is cached if successful.
+     */
+    public ResponseEntity<String> get(final String key, final Supplier<ResponseEntity<String>> call) {
+        if (responses == null) {
+            return call.get();
+        }
+        final CompletableFuture<ResponseEntity<String>> flight = new CompletableFuture<>();
+        final CompletableFuture<ResponseEntity<String>> response = responses.get(key, (k, executor) -> flight);
+        if (response == flight) {
+            try {
+                flight.complete(call.get());
+            } catch (Throwable e) {
+                // Removes the failed call from the cache.  An Error is caught too, or the flight would never complete, and
+                // every later call for the key would wait on it.
+                flight.completeExceptionally(e);
+            }
+        }
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+}
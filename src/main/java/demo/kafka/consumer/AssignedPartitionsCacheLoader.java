@@ -0,0 +1,63 @@
+package demo.kafka.consumer;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import demo.kafka.cache.ProcessedEventCache;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.repository.ProcessedEventRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.dao.DataAccessException;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads the Ids of the events most recently processed from each partition into the processed event cache as the
+ * partition is assigned, and drops them as it is revoked.  The records redelivered after a rebalance, having been
+ * processed by the previous owner of the partition but not yet committed, are then rejected without a database round
+ * trip each.
+ *
+ * The Ids are loaded on the consumer thread before its first poll of the partition, so are in place for the redelivery.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AssignedPartitionsCacheLoader implements ConsumerAwareRebalanceListener {
+
+    private final KafkaDemoProperties properties;
+    private final ProcessedEventCache processedEventCache;
+    private final ProcessedEventRepository processedEventRepository;
+
+    public boolean isEnabled() {
+        return processedEventCache.isEnabled() && properties.getProcessedEventCache().getEventsPerAssignedPartition() > 0;
+    }
+
+    @Override
+    public void onPartitionsAssigned(final Consumer<?, ?> consumer, final Collection<TopicPartition> partitions) {
+        final int limit = properties.getProcessedEventCache().getEventsPerAssignedPartition();
+        for (TopicPartition partition : partitions) {
+            try {
+                final List<UUID> eventIds = processedEventRepository.findRecentEventIds(partition.topic(), partition.partition(), limit);
+                processedEventCache.addPartition(partition, eventIds);
+                log.debug("Loaded {} processed event Ids for assigned partition {}", eventIds.size(), partition);
+            } catch (DataAccessException e) {
+                // Only an optimisation, as every miss is still checked against the processed_event table.
+                log.warn("Failed to load processed event Ids for assigned partition {}: {}", partition, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedAfterCommit(final Consumer<?, ?> consumer, final Collection<TopicPartition> partitions) {
+        partitions.forEach(processedEventCache::removePartition);
+    }
+
+    @Override
+    public void onPartitionsLost(final Consumer<?, ?> consumer, final Collection<TopicPartition> partitions) {
+        partitions.forEach(processedEventCache::removePartition);
+    }
+}
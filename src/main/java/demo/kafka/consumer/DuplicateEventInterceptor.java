@@ -0,0 +1,167 @@
+package demo.kafka.consumer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import demo.kafka.cache.ProcessedEventCache;
+import demo.kafka.event.EventSource;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.metrics.ProcessingMetrics;
+import demo.kafka.metrics.ProcessingMetrics.Outcome;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.springframework.kafka.listener.BatchInterceptor;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.listener.RecordInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops the records of an @IdempotentListener whose event Id is in the processed event cache, before the listener is
+ * invoked, and so before the payload is mapped, a transaction is started or a database connection is acquired.  The
+ * event Id is parsed straight from the header bytes.
+ *
+ * A record dropped by the record interceptor is still acknowledged by the container, so is not redelivered.  A batch
+ * listener only acknowledges the records passed to it, so the batch interceptor commits the offsets of the partitions
+ * whose records were all dropped itself, and keeps the last record of any other partition, so that the listener's
+ * acknowledgement covers the duplicates at its end.  A record that is not in the cache, including one without a valid
+ * event Id, is passed on to the listener, which still deduplicates it against the cache and the processed_event table.
+ *
+ * Not used by the parallel listeners, as with manual acknowledgements the container would not acknowledge the dropped
+ * records, so their partitions' offsets would never be committed past them.
+ */
+@Slf4j
+@Component
+public class DuplicateEventInterceptor {
+
+    private final ProcessedEventCache processedEventCache;
+    private final ProcessingMetrics processingMetrics;
+    private final IdempotentListenerPostProcessor idempotentListeners;
+
+    public DuplicateEventInterceptor(final ProcessedEventCache processedEventCache,
+                                     final ProcessingMetrics processingMetrics,
+                                     final IdempotentListenerPostProcessor idempotentListeners) {
+        this.processedEventCache = processedEventCache;
+        this.processingMetrics = processingMetrics;
+        this.idempotentListeners = idempotentListeners;
+    }
+
+    /**
+     * Whether the container's records are checked, which requires the processed event cache.
+     */
+    public boolean isEnabled(final MessageListenerContainer container) {
+        return processedEventCache.isEnabled() && idempotentListeners.isIdempotent(container.getListenerId());
+    }
+
+    public <K, V> RecordInterceptor<K, V> recordInterceptor(final MessageListenerContainer container) {
+        final String listener = container.getListenerId();
+        return (record, consumer) -> {
+            if (isDuplicate(record)) {
+                countDuplicates(listener, record.topic(), 1);
+                return null;
+            }
+            return record;
+        };
+    }
+
+    /**
+     * Removes the duplicates from the batch, so the listener only receives the rest.  A batch of only duplicates is not
+     * passed to the listener at all.
+     *
+     * The records of a partition before those just polled have already been acknowledged, or have been sought back to,
+     * so committing the offset of a partition of only duplicates cannot skip a record still to be processed.
+     */
+    public <K, V> BatchInterceptor<K, V> batchInterceptor(final MessageListenerContainer container) {
+        final String listener = container.getListenerId();
+        return (records, consumer) -> {
+            Map<TopicPartition, List<ConsumerRecord<K, V>>> retained = null;
+            Map<TopicPartition, OffsetAndMetadata> dropped = null;
+            int duplicates = 0;
+            for (TopicPartition partition : records.partitions()) {
+                final List<ConsumerRecord<K, V>> partitionRecords = records.records(partition);
+                final List<ConsumerRecord<K, V>> partitionRetained = new ArrayList<>(partitionRecords.size());
+                ConsumerRecord<K, V> lastDuplicate = null;
+                for (ConsumerRecord<K, V> record : partitionRecords) {
+                    if (isDuplicate(record)) {
+                        duplicates++;
+                        lastDuplicate = record;
+                    } else {
+                        partitionRetained.add(record);
+                        lastDuplicate = null;
+                    }
+                }
+                if (partitionRetained.isEmpty()) {
+                    if (dropped == null) {
+                        dropped = new HashMap<>();
+                    }
+                    dropped.put(partition, new OffsetAndMetadata(lastDuplicate.offset() + 1));
+                    countDuplicates(listener, partition.topic(), partitionRecords.size());
+                    continue;
+                }
+                if (lastDuplicate != null) {
+                    // Counted by the listener, which finds it in the cache.
+                    partitionRetained.add(lastDuplicate);
+                    duplicates--;
+                }
+                countDuplicates(listener, partition.topic(), partitionRecords.size() - partitionRetained.size());
+                if (retained == null) {
+                    retained = new HashMap<>();
+                }
+                retained.put(partition, partitionRetained);
+            }
+            if (dropped != null) {
+                consumer.commitSync(dropped);
+            }
+            if (duplicates == 0) {
+                return records;
+            }
+            return retained != null ? new ConsumerRecords<>(retained) : null;
+        };
+    }
+
+    private boolean isDuplicate(final ConsumerRecord<?, ?> record) {
+        final Header header = record.headers().lastHeader(KafkaClient.EVENT_ID_HEADER_KEY);
+        final UUID eventId = header != null ? parseEventId(header.value()) : null;
+        return eventId != null && processedEventCache.isProcessed(eventId, new EventSource(record.topic(), record.partition(), record.offset()));
+    }
+
+    private void countDuplicates(final String listener, final String topic, final int duplicates) {
+        if (duplicates > 0) {
+            log.debug("Duplicate messages dropped: " + duplicates);
+            processingMetrics.count(listener, topic, Outcome.DUPLICATE, duplicates);
+        }
+    }
+
+    /**
+     * Parses the canonical 36 character form of a UUID without first decoding it to a String.
+     *
+     * @return the UUID, or null if the value is not a UUID.
+     */
+    static UUID parseEventId(final byte[] value) {
+        if (value == null || value.length != 36) {
+            return null;
+        }
+        for (int i = 0; i < value.length; i++) {
+            final boolean dash = i == 8 || i == 13 || i == 18 || i == 23;
+            if (dash ? value[i] != '-' : Character.digit(value[i], 16) < 0) {
+                return null;
+            }
+        }
+        return new UUID(hex(value, 0, 8) << 32 | hex(value, 9, 13) << 16 | hex(value, 14, 18),
+                hex(value, 19, 23) << 48 | hex(value, 24, 36));
+    }
+
+    private static long hex(final byte[] value, final int from, final int to) {
+        long result = 0;
+        for (int i = from; i < to; i++) {
+            result = result << 4 | Character.digit(value[i], 16);
+        }
+        return result;
+    }
+}
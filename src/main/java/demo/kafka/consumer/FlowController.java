@@ -0,0 +1,252 @@
+package demo.kafka.consumer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.listener.BatchInterceptor;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.listener.RecordInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the listeners' consumers in the group when processing slows or fails, rather than letting a slow thirdparty
+ * push a poll past max.poll.interval.ms, triggering a rebalance and the redelivery of every uncommitted record.
+ *
+ * The processing time and retryable failures of each record are measured by interceptors on the listener containers.
+ * Each check interval:
+ * - when the average processing time or error rate over the interval crosses its threshold, every assigned partition
+ * of the container is paused.  The consumer carries on polling, so stays in the group, but receives no records.
+ * - once paused for the pause duration, and while the interval is healthy, the partitions are resumed a few at a time,
+ * so that load returns gradually, and is paused again should the latency or errors return.
+ *
+ * The batch listeners process no more of each poll than is expected to take the poll budget at the smoothed latency,
+ * negatively acknowledging the rest of the batch so that it is redelivered with the next poll.  The limit is computed
+ * once per poll as the batch is intercepted, and handed to the listener on the same consumer thread, so the records the
+ * listener processes are those the interceptor times.
+ */
+@Slf4j
+@Component
+public class FlowController {
+
+    public static final String PAUSED_PARTITIONS = "demo.flow.paused.partitions";
+    public static final String BATCH_SIZE = "demo.flow.batch.size";
+
+    // The weight given to the latest interval's average latency when smoothing.
+    private static final double SMOOTHING = 0.3;
+
+    private final KafkaDemoProperties.FlowControl config;
+    private final MeterRegistry meterRegistry;
+    private final long pollBudgetNanos;
+    private final int maxPollRecords;
+    private final Map<String, ContainerFlow> flows = new ConcurrentHashMap<>();
+    // The start time and batch limit of the batch being processed on each consumer thread.
+    private final ThreadLocal<long[]> batches = new ThreadLocal<>();
+
+    public FlowController(final KafkaDemoProperties properties,
+                          final MeterRegistry meterRegistry,
+                          @Value("${kafka.consumer.maxPollIntervalMs}") final long maxPollIntervalMs,
+                          @Value("${kafka.consumer.maxPollRecords}") final int maxPollRecords) {
+        this.config = properties.getFlowControl();
+        this.meterRegistry = meterRegistry;
+        this.pollBudgetNanos = (long) (maxPollIntervalMs * 1_000_000 * config.getPollBudget());
+        this.maxPollRecords = maxPollRecords;
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    public <K, V> RecordInterceptor<K, V> recordInterceptor(final MessageListenerContainer container) {
+        final ContainerFlow flow = flow(container);
+        final ThreadLocal<long[]> started = new ThreadLocal<>();
+        return new RecordInterceptor<>() {
+            @Override
+            public ConsumerRecord<K, V> intercept(final ConsumerRecord<K, V> record, final Consumer<K, V> consumer) {
+                started.set(new long[] { System.nanoTime(), 0 });
+                return record;
+            }
+
+            @Override
+            public void failure(final ConsumerRecord<K, V> record, final Exception exception, final Consumer<K, V> consumer) {
+                if (started.get() != null) {
+                    started.get()[1] = 1;
+                }
+            }
+
+            @Override
+            public void afterRecord(final ConsumerRecord<K, V> record, final Consumer<K, V> consumer) {
+                final long[] start = started.get();
+                if (start != null) {
+                    flow.record(System.nanoTime() - start[0], 1, (int) start[1]);
+                    started.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * The records processed from each batch are those up to the batch limit, so the time taken is spread across those.
+     */
+    public <K, V> BatchInterceptor<K, V> batchInterceptor(final MessageListenerContainer container) {
+        final ContainerFlow flow = flow(container);
+        return new BatchInterceptor<>() {
+            @Override
+            public ConsumerRecords<K, V> intercept(final ConsumerRecords<K, V> records, final Consumer<K, V> consumer) {
+                batches.set(new long[] { System.nanoTime(), flow.batchLimit(records.count()) });
+                return records;
+            }
+
+            @Override
+            public void success(final ConsumerRecords<K, V> records, final Consumer<K, V> consumer) {
+                complete(false);
+            }
+
+            @Override
+            public void failure(final ConsumerRecords<K, V> records, final Exception exception, final Consumer<K, V> consumer) {
+                complete(true);
+            }
+
+            private void complete(final boolean failed) {
+                final long[] batch = batches.get();
+                if (batch != null) {
+                    final int processed = (int) batch[1];
+                    flow.record(System.nanoTime() - batch[0], processed, failed ? processed : 0);
+                    batches.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * The number of records at the start of the batch to process, with the rest to be redelivered.  Called by the
+     * listener, on the consumer thread that intercepted the batch, for the limit computed then.
+     */
+    public int batchLimit(final int batchSize) {
+        final long[] batch = batches.get();
+        return batch != null ? (int) Math.min(batchSize, batch[1]) : batchSize;
+    }
+
+    /**
+     * A restarted container's consumers are recreated, so none of its partitions remain paused.
+     */
+    public void reset(final String listenerId) {
+        final ContainerFlow flow = flows.get(listenerId);
+        if (flow != null) {
+            flow.reset();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${kafkademo.flowControl.checkInterval}")
+    public void check() {
+        if (config.isEnabled()) {
+            flows.values().forEach(ContainerFlow::check);
+        }
+    }
+
+    private ContainerFlow flow(final MessageListenerContainer container) {
+        return flows.computeIfAbsent(container.getListenerId(), listenerId -> {
+            final ContainerFlow flow = new ContainerFlow(container);
+            Gauge.builder(PAUSED_PARTITIONS, flow, f -> f.paused.size())
+                    .description("The partitions paused by flow control")
+                    .tag("listener", listenerId)
+                    .register(meterRegistry);
+            Gauge.builder(BATCH_SIZE, flow, f -> f.batchLimit(maxPollRecords))
+                    .description("The most records processed from each batch")
+                    .tag("listener", listenerId)
+                    .register(meterRegistry);
+            return flow;
+        });
+    }
+
+    private final class ContainerFlow {
+        private final MessageListenerContainer container;
+        private final List<TopicPartition> paused = new ArrayList<>();
+        private long intervalNanos;
+        private long intervalRecords;
+        private long intervalFailures;
+        private double smoothedNanos;
+        private long pausedUntil;
+
+        private ContainerFlow(final MessageListenerContainer container) {
+            this.container = container;
+        }
+
+        private synchronized void record(final long elapsedNanos, final int records, final int failures) {
+            intervalNanos += elapsedNanos;
+            intervalRecords += records;
+            intervalFailures += failures;
+        }
+
+        private synchronized int batchLimit(final int batchSize) {
+            if (smoothedNanos <= 0) {
+                return batchSize;
+            }
+            final long limit = (long) (pollBudgetNanos / smoothedNanos);
+            return (int) Math.max(1, Math.min(batchSize, limit));
+        }
+
+        private synchronized void check() {
+            final long now = System.nanoTime();
+            if (intervalRecords > 0) {
+                final double averageNanos = (double) intervalNanos / intervalRecords;
+                final double errorRate = (double) intervalFailures / intervalRecords;
+                smoothedNanos = smoothedNanos <= 0 ? averageNanos : SMOOTHING * averageNanos + (1 - SMOOTHING) * smoothedNanos;
+                if (averageNanos > config.getLatencyThreshold().toNanos() || errorRate > config.getErrorRateThreshold()) {
+                    log.warn("Pausing partitions of listener {}: average processing time {}ms, error rate {}",
+                            container.getListenerId(), (long) (averageNanos / 1_000_000), errorRate);
+                    pause(now);
+                    resetInterval();
+                    return;
+                }
+            }
+            resetInterval();
+            if (!paused.isEmpty() && now - pausedUntil >= 0) {
+                resume();
+            }
+        }
+
+        private void pause(final long now) {
+            final Collection<TopicPartition> assigned = container.getAssignedPartitions();
+            if (assigned != null) {
+                for (TopicPartition partition : assigned) {
+                    if (!paused.contains(partition)) {
+                        container.pausePartition(partition);
+                        paused.add(partition);
+                    }
+                }
+            }
+            pausedUntil = now + config.getPauseDuration().toNanos();
+        }
+
+        private void resume() {
+            for (int i = 0; i < config.getResumeStep() && !paused.isEmpty(); i++) {
+                container.resumePartition(paused.remove(0));
+            }
+            log.info("Resumed partitions of listener {}, {} still paused", container.getListenerId(), paused.size());
+        }
+
+        private synchronized void reset() {
+            paused.clear();
+            resetInterval();
+        }
+
+        private void resetInterval() {
+            intervalNanos = 0;
+            intervalRecords = 0;
+            intervalFailures = 0;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package demo.kafka.consumer;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a @KafkaListener method, which must have an id, as idempotent, so that its container drops the records whose
+ * event Id is already known to be processed before they reach the listener.
+ *
+ * Only applies to the listeners of the record and batch listener container factories, and to the retry topic listeners
+ * derived from them.
+ *
+ * @see DuplicateEventInterceptor
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface IdempotentListener {
+}
@@ -0,0 +1,52 @@
+package demo.kafka.consumer;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Collects the ids of the @KafkaListener methods marked as @IdempotentListener.  Every singleton has been post
+ * processed before the listener containers are created, so the ids are all known by the time the containers are
+ * customized.
+ */
+@Component
+public class IdempotentListenerPostProcessor implements BeanPostProcessor {
+
+    private final Set<String> listenerIds = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+        ReflectionUtils.doWithMethods(AopUtils.getTargetClass(bean), method -> {
+            final KafkaListener kafkaListener = AnnotatedElementUtils.findMergedAnnotation(method, KafkaListener.class);
+            if (kafkaListener == null) {
+                throw new IllegalStateException("@IdempotentListener requires a @KafkaListener: " + method);
+            }
+            if (kafkaListener.id().isEmpty()) {
+                throw new IllegalStateException("@IdempotentListener requires the @KafkaListener to have an id: " + method);
+            }
+            listenerIds.add(kafkaListener.id());
+        }, method -> method.isAnnotationPresent(IdempotentListener.class));
+        return bean;
+    }
+
+    /**
+     * @param listenerId the id of a listener container, which for a retry topic has the retry topic's suffix appended.
+     */
+    public boolean isIdempotent(final String listenerId) {
+        if (listenerId == null) {
+            return false;
+        }
+        for (String id : listenerIds) {
+            if (listenerId.equals(id) || listenerId.startsWith(id + "-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,47 @@
+package demo.kafka.consumer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.event.EventSource;
+import demo.kafka.event.EventTimestamps;
+import demo.kafka.event.DemoInboundEventRecord;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.mapper.JsonMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+
+/**
+ * Maps a batch of consumed records to inbound events, dropping any that cannot be mapped.
+ */
+@Slf4j
+final class InboundEventRecords {
+
+    private InboundEventRecords() {}
+
+    static List<DemoInboundEventRecord> map(final List<ConsumerRecord<String, byte[]>> records) {
+        final List<DemoInboundEventRecord> inboundEvents = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, byte[]> record : records) {
+            try {
+                final Header eventIdHeader = record.headers().lastHeader(KafkaClient.EVENT_ID_HEADER_KEY);
+                if (eventIdHeader == null || eventIdHeader.value() == null) {
+                    throw new IllegalArgumentException("Missing header: " + KafkaClient.EVENT_ID_HEADER_KEY);
+                }
+                inboundEvents.add(DemoInboundEventRecord.builder()
+                        .eventId(UUID.fromString(new String(eventIdHeader.value(), StandardCharsets.UTF_8)))
+                        .key(record.key())
+                        .event(JsonMapper.readFromJson(record.value(), DemoInboundEvent.class))
+                        .source(new EventSource(record.topic(), record.partition(), record.offset()))
+                        .timestamps(EventTimestamps.consumed(record.headers(), record.timestamp()))
+                        .build());
+            } catch (Exception e) {
+                log.error("Error processing message at offset " + record.offset() + " on " + record.topic() + "-" + record.partition() + ": " + e.getMessage());
+            }
+        }
+        return inboundEvents;
+    }
+}
@@ -0,0 +1,75 @@
+package demo.kafka.consumer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.event.DemoInboundEventRecord;
+import demo.kafka.exception.Retryable;
+import demo.kafka.metrics.ProcessingMetrics;
+import demo.kafka.metrics.ProcessingMetrics.Outcome;
+import demo.kafka.metrics.ProcessingMetrics.Stage;
+import demo.kafka.service.BatchResult;
+import demo.kafka.service.DemoService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@RequiredArgsConstructor
+@Component
+@ConditionalOnProperty(name = "kafkademo.listenerMode", havingValue = "batch")
+public class KafkaIdempotentBatchConsumerWithOutbox {
+
+    static final String LISTENER = "KafkaIdempotentBatchConsumerWithOutbox";
+    static final String TOPIC = "demo-idempotent-with-outbox-inbound-topic";
+
+    final AtomicInteger counter = new AtomicInteger();
+    final DemoService demoRetryService;
+    final ProcessingMetrics processingMetrics;
+    final FlowController flowController;
+
+    @IdempotentListener
+    @KafkaListener(id = LISTENER, topics = TOPIC, groupId = "kafkaConsumerGroup", containerFactory = "kafkaBatchListenerContainerFactory")
+    public void listen(final List<ConsumerRecord<String, byte[]>> received,
+                       @Header(value = KafkaHeaders.ACKNOWLEDGMENT, required = false) final Acknowledgment acknowledgment) {
+        // With flow control only the head of the batch may be processed, with the rest redelivered by the next poll.
+        final List<ConsumerRecord<String, byte[]>> records = received.subList(0, flowController.batchLimit(received.size()));
+        if (!records.isEmpty()) {
+            processingMetrics.received();
+        }
+        counter.addAndGet(records.size());
+        log.debug("Received batch of [" + records.size() + "] messages - total received [" + counter.get() + "]");
+        try {
+            final List<DemoInboundEventRecord> inboundEvents = processingMetrics.time(Stage.JSON_MAPPING, () -> InboundEventRecords.map(records));
+            final BatchResult result = demoRetryService.processIdempotentAndOutboxBatch(inboundEvents);
+            processingMetrics.count(LISTENER, TOPIC, Outcome.PROCESSED, result.getProcessed());
+            processingMetrics.count(LISTENER, TOPIC, Outcome.DUPLICATE, result.getDuplicates());
+            // Including the records that could not be mapped.
+            processingMetrics.count(LISTENER, TOPIC, Outcome.NON_RETRYABLE_FAILURE, result.getFailed() + records.size() - inboundEvents.size());
+        } catch (Exception e) {
+            if (e instanceof Retryable) {
+                processingMetrics.count(LISTENER, TOPIC, Outcome.RETRYABLE_FAILURE, records.size());
+                log.debug("Throwing retryable exception.");
+                throw e;
+            }
+            processingMetrics.count(LISTENER, TOPIC, Outcome.NON_RETRYABLE_FAILURE, records.size());
+            log.error("Error processing batch: " + e.getMessage());
+        }
+        // Only given in the manual ack mode used with flow control, as otherwise the container commits the batch.
+        if (acknowledgment == null) {
+            return;
+        }
+        if (records.size() < received.size()) {
+            acknowledgment.nack(records.size(), Duration.ZERO);
+        } else {
+            acknowledgment.acknowledge();
+        }
+    }
+}
@@ -1,15 +1,22 @@
 package demo.kafka.consumer;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import demo.kafka.event.DemoInboundEvent;
-import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.event.EventSource;
+import demo.kafka.event.EventTimestamps;
 import demo.kafka.exception.Retryable;
 import demo.kafka.lib.KafkaClient;
 import demo.kafka.mapper.JsonMapper;
+import demo.kafka.metrics.ProcessingMetrics;
+import demo.kafka.metrics.ProcessingMetrics.Outcome;
+import demo.kafka.metrics.ProcessingMetrics.Stage;
+import demo.kafka.properties.KafkaDemoProperties;
 import demo.kafka.service.DemoService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
@@ -19,27 +26,54 @@ import org.springframework.stereotype.Component;
 @Slf4j
 @RequiredArgsConstructor
 @Component
+@ConditionalOnProperty(name = "kafkademo.listenerMode", havingValue = "record", matchIfMissing = true)
 public class KafkaIdempotentConsumer {
 
+    static final String LISTENER = "KafkaIdempotentConsumer";
+    static final String TOPIC = "demo-idempotent-inbound-topic";
+
     final AtomicInteger counter = new AtomicInteger();
     final DemoService demoRetryService;
+    final ProcessingMetrics processingMetrics;
+    final KafkaDemoProperties properties;
 
-    @KafkaListener(topics = "demo-idempotent-inbound-topic", groupId = "kafkaConsumerGroup", containerFactory = "kafkaListenerContainerFactory")
-    public void listen(@Header(KafkaClient.EVENT_ID_HEADER_KEY) String eventId, @Header(KafkaHeaders.RECEIVED_KEY) String key, @Payload final String payload) {
+    @IdempotentListener
+    @KafkaListener(id = LISTENER, topics = TOPIC, groupId = "kafkaConsumerGroup", containerFactory = "kafkaListenerContainerFactory")
+    public void listen(@Header(KafkaClient.EVENT_ID_HEADER_KEY) String eventId, @Header(KafkaHeaders.RECEIVED_KEY) String key,
+                       @Header(KafkaHeaders.RECEIVED_TOPIC) String topic, @Header(KafkaHeaders.RECEIVED_PARTITION) int partition, @Header(KafkaHeaders.OFFSET) long offset,
+                       @Header(KafkaHeaders.RECEIVED_TIMESTAMP) long timestamp, @Header(value = EventTimestamps.ORIGIN_TIMESTAMP_HEADER_KEY, required = false) String originTimestamp,
+                       @Payload final byte[] payload) {
+        final EventTimestamps timestamps = EventTimestamps.consumed(originTimestamp, timestamp);
+        processingMetrics.received();
         counter.getAndIncrement();
-        log.debug("Received message [" +counter.get()+ "] - eventId: "+eventId+" - key: " + key + " - payload: " + payload);
+        if (log.isDebugEnabled()) {
+            log.debug("Received message [" +counter.get()+ "] - eventId: "+eventId+" - key: " + key + " - payload: " + new String(payload, StandardCharsets.UTF_8));
+        }
         try {
-            DemoInboundEvent event = JsonMapper.readFromJson(payload, DemoInboundEvent.class);
-            demoRetryService.processIdempotent(eventId, key, event);
-        } catch (DuplicateEventException e) {
-            // Update consumer offsets to ensure event is not again redelivered.
-            log.debug("Duplicate message received: "+ e.getMessage());
+            DemoInboundEvent event = processingMetrics.time(Stage.JSON_MAPPING, () -> JsonMapper.readFromJson(payload, DemoInboundEvent.class));
+            final EventSource source = new EventSource(topic, partition, offset);
+            final Outcome outcome = properties.getKafkaTransactions().isEnabled()
+                    ? Outcome.of(demoRetryService.processIdempotentTransactional(eventId, key, event, source, timestamps))
+                    : properties.getProcessedEventLease().isEnabled()
+                    ? demoRetryService.processIdempotentWithLease(eventId, key, event, source, timestamps)
+                    : Outcome.of(demoRetryService.processIdempotent(eventId, key, event, source, timestamps));
+            if (outcome == Outcome.DUPLICATE) {
+                // Consumer offsets are updated as normal, so the duplicate is not redelivered.
+                log.debug("Duplicate message received: " + eventId);
+            }
+            processingMetrics.count(LISTENER, TOPIC, outcome);
         } catch (Exception e) {
             if (e instanceof Retryable) {
+                processingMetrics.count(LISTENER, TOPIC, Outcome.RETRYABLE_FAILURE);
                 log.debug("Throwing retryable exception.");
                 throw e;
             }
+            processingMetrics.count(LISTENER, TOPIC, Outcome.NON_RETRYABLE_FAILURE);
             log.error("Error processing message: " + e.getMessage());
+            if (properties.getRetryTopics().isEnabled()) {
+                // Sent straight on to the dead letter topic.
+                throw e;
+            }
         }
     }
 }
@@ -0,0 +1,72 @@
+package demo.kafka.consumer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.event.EventSource;
+import demo.kafka.event.EventTimestamps;
+import demo.kafka.exception.Retryable;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.mapper.JsonMapper;
+import demo.kafka.metrics.ProcessingMetrics;
+import demo.kafka.metrics.ProcessingMetrics.Outcome;
+import demo.kafka.metrics.ProcessingMetrics.Stage;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.service.DemoService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@RequiredArgsConstructor
+@Component
+@ConditionalOnProperty(name = "kafkademo.listenerMode", havingValue = "parallel")
+public class KafkaIdempotentParallelConsumer {
+
+    static final String LISTENER = "KafkaIdempotentParallelConsumer";
+    static final String TOPIC = "demo-idempotent-inbound-topic";
+
+    final AtomicInteger counter = new AtomicInteger();
+    final DemoService demoRetryService;
+    final KeyOrderedExecutor keyOrderedExecutor;
+    final ProcessingMetrics processingMetrics;
+    final KafkaDemoProperties properties;
+
+    @KafkaListener(id = LISTENER, topics = TOPIC, groupId = "kafkaConsumerGroup", containerFactory = "kafkaParallelListenerContainerFactory")
+    public void listen(@Header(KafkaClient.EVENT_ID_HEADER_KEY) String eventId, @Header(value = KafkaHeaders.RECEIVED_KEY, required = false) String key,
+                       @Header(KafkaHeaders.RECEIVED_PARTITION) int partition, @Header(KafkaHeaders.OFFSET) long offset,
+                       @Header(KafkaHeaders.RECEIVED_TIMESTAMP) long timestamp, @Header(value = EventTimestamps.ORIGIN_TIMESTAMP_HEADER_KEY, required = false) String originTimestamp,
+                       @Payload final byte[] payload, final Acknowledgment acknowledgment) {
+        final EventTimestamps timestamps = EventTimestamps.consumed(originTimestamp, timestamp);
+        processingMetrics.received();
+        counter.getAndIncrement();
+        if (log.isDebugEnabled()) {
+            log.debug("Received message [" +counter.get()+ "] - eventId: "+eventId+" - key: " + key + " - payload: " + new String(payload, StandardCharsets.UTF_8));
+        }
+        // Retryable exceptions are retried on the lane, and all others logged.
+        keyOrderedExecutor.execute(LISTENER, key, partition, acknowledgment, () -> {
+            try {
+                DemoInboundEvent event = processingMetrics.time(Stage.JSON_MAPPING, () -> JsonMapper.readFromJson(payload, DemoInboundEvent.class));
+                final EventSource source = new EventSource(TOPIC, partition, offset);
+                final Outcome outcome = properties.getProcessedEventLease().isEnabled()
+                        ? demoRetryService.processIdempotentWithLease(eventId, key, event, source, timestamps)
+                        : Outcome.of(demoRetryService.processIdempotent(eventId, key, event, source, timestamps));
+                if (outcome == Outcome.DUPLICATE) {
+                    // The record is acknowledged as normal, so the duplicate is not redelivered.
+                    log.debug("Duplicate message received: " + eventId);
+                }
+                processingMetrics.count(LISTENER, TOPIC, outcome);
+            } catch (RuntimeException e) {
+                processingMetrics.count(LISTENER, TOPIC, e instanceof Retryable ? Outcome.RETRYABLE_FAILURE : Outcome.NON_RETRYABLE_FAILURE);
+                throw e;
+            }
+        });
+    }
+}
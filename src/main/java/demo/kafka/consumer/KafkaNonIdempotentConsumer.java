@@ -1,11 +1,16 @@
 package demo.kafka.consumer;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import demo.kafka.event.DemoInboundEvent;
-import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.event.EventTimestamps;
 import demo.kafka.exception.Retryable;
 import demo.kafka.mapper.JsonMapper;
+import demo.kafka.metrics.ProcessingMetrics;
+import demo.kafka.metrics.ProcessingMetrics.Outcome;
+import demo.kafka.metrics.ProcessingMetrics.Stage;
+import demo.kafka.properties.KafkaDemoProperties;
 import demo.kafka.service.DemoService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -20,25 +25,40 @@ import org.springframework.stereotype.Component;
 @Component
 public class KafkaNonIdempotentConsumer {
 
+    static final String LISTENER = "KafkaNonIdempotentConsumer";
+    static final String TOPIC = "demo-non-idempotent-inbound-topic";
+
     final AtomicInteger counter = new AtomicInteger();
     final DemoService demoRetryService;
+    final ProcessingMetrics processingMetrics;
+    final KafkaDemoProperties properties;
 
-    @KafkaListener(topics = "demo-non-idempotent-inbound-topic", groupId = "kafkaConsumerGroup", containerFactory = "kafkaListenerContainerFactory")
-    public void listen(@Header(KafkaHeaders.RECEIVED_KEY) String key, @Payload final String payload) {
+    @KafkaListener(id = LISTENER, topics = TOPIC, groupId = "kafkaConsumerGroup", containerFactory = "kafkaListenerContainerFactory")
+    public void listen(@Header(KafkaHeaders.RECEIVED_KEY) String key,
+                       @Header(KafkaHeaders.RECEIVED_TIMESTAMP) long timestamp, @Header(value = EventTimestamps.ORIGIN_TIMESTAMP_HEADER_KEY, required = false) String originTimestamp,
+                       @Payload final byte[] payload) {
+        final EventTimestamps timestamps = EventTimestamps.consumed(originTimestamp, timestamp);
+        processingMetrics.received();
         counter.getAndIncrement();
-        log.debug("Received message [" +counter.get()+ "] - key: " + key + " - payload: " + payload);
+        if (log.isDebugEnabled()) {
+            log.debug("Received message [" +counter.get()+ "] - key: " + key + " - payload: " + new String(payload, StandardCharsets.UTF_8));
+        }
         try {
-            DemoInboundEvent event = JsonMapper.readFromJson(payload, DemoInboundEvent.class);
-            demoRetryService.processNonIdempotent(key, event);
-        } catch (DuplicateEventException e) {
-            // Update consumer offsets to ensure event is not again redelivered.
-            log.debug("Duplicate message received: "+ e.getMessage());
+            DemoInboundEvent event = processingMetrics.time(Stage.JSON_MAPPING, () -> JsonMapper.readFromJson(payload, DemoInboundEvent.class));
+            demoRetryService.processNonIdempotent(key, event, timestamps);
+            processingMetrics.count(LISTENER, TOPIC, Outcome.PROCESSED);
         } catch (Exception e) {
             if (e instanceof Retryable) {
+                processingMetrics.count(LISTENER, TOPIC, Outcome.RETRYABLE_FAILURE);
                 log.debug("Throwing retryable exception.");
                 throw e;
             }
+            processingMetrics.count(LISTENER, TOPIC, Outcome.NON_RETRYABLE_FAILURE);
             log.error("Error processing message: " + e.getMessage());
+            if (properties.getRetryTopics().isEnabled()) {
+                // Sent straight on to the dead letter topic.
+                throw e;
+            }
         }
     }
 }
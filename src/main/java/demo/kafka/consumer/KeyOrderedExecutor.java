@@ -0,0 +1,234 @@
+package demo.kafka.consumer;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import demo.kafka.exception.Retryable;
+import demo.kafka.lib.VirtualThreads;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Processes records on a fixed set of lanes, each a single thread, so that records from one partition are processed in
+ * parallel while records with the same key are processed in the order they were received.
+ *
+ * Each record is acknowledged once it has been processed (or skipped), with the container committing only the offsets
+ * that every earlier record in the partition has also reached.  A record failing with a retryable error is retried on
+ * its lane, holding up the records behind it with the same lane, rather than being redelivered.  Should it still fail
+ * once its attempts are exhausted the lane is stopped, so that neither it nor any later record for the lane is
+ * acknowledged, and they are redelivered from the failed record once the service is restarted.  Records failing with
+ * any other error are logged and skipped.
+ *
+ * The listener never blocks handing over a record, which could hold up the poll beyond max.poll.interval.ms.  Instead
+ * the listener containers are paused once a lane has laneCapacity records waiting, and resumed once every lane is back
+ * below half that.  A stopped lane also pauses them, until the restart, so that the pending acknowledgements do not
+ * grow without bound behind the failed record.  The stopped lanes are published as a metric, and mark the service down.
+ *
+ * The lanes may run on virtual threads, so that many more can be run than platform threads.  The records being
+ * processed at once are then bounded by the database connection pool, rather than by the number of lanes.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "kafkademo.listenerMode", havingValue = "parallel")
+class KeyOrderedExecutor implements HealthIndicator, DisposableBean {
+
+    static final String STOPPED_LANES = "demo.parallel.stopped.lanes";
+    static final String PAUSED = "demo.parallel.paused";
+
+    private final KafkaDemoProperties.ParallelListener config;
+    private final KafkaListenerEndpointRegistry registry;
+    private final List<BlockingQueue<Runnable>> lanes = new ArrayList<>();
+    private final List<Thread> laneThreads = new ArrayList<>();
+    private final Set<Integer> stoppedLanes = ConcurrentHashMap.newKeySet();
+    // The listeners handing records to the lanes, whose containers are paused and resumed together.
+    private final Set<String> listenerIds = ConcurrentHashMap.newKeySet();
+    private final Semaphore inFlight;
+    private volatile boolean running = true;
+    private volatile boolean paused;
+
+    KeyOrderedExecutor(final KafkaDemoProperties properties, final DataSource dataSource,
+                       final KafkaListenerEndpointRegistry registry, final MeterRegistry meterRegistry) throws SQLException {
+        config = properties.getParallelListener();
+        this.registry = registry;
+        final int maxInFlight = config.getMaxInFlight() > 0 ? config.getMaxInFlight() : connectionPoolSize(dataSource, config.getLanes());
+        inFlight = new Semaphore(maxInFlight);
+        log.info("Parallel listener started with lanes: {}, max in flight: {}", config.getLanes(), maxInFlight);
+        final ThreadFactory threadFactory = VirtualThreads.threadFactory(properties.getVirtualThreads().isEnabled(), "parallel-listener-lane-");
+        for (int i = 0; i < config.getLanes(); i++) {
+            final int index = i;
+            // Unbounded, as the rest of a poll is still queued once the lane is full and the containers are paused.
+            final BlockingQueue<Runnable> lane = new LinkedBlockingQueue<>();
+            final Thread laneThread = threadFactory.newThread(() -> runLane(index, lane));
+            lanes.add(lane);
+            laneThreads.add(laneThread);
+            laneThread.start();
+        }
+        Gauge.builder(STOPPED_LANES, stoppedLanes, Set::size)
+                .description("The parallel listener lanes stopped by a record out of attempts")
+                .register(meterRegistry);
+        Gauge.builder(PAUSED, this, executor -> executor.paused ? 1 : 0)
+                .description("Whether the parallel listener containers are paused")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues the task on the lane for the key, pausing the listener containers once that lane is full.  A record for a
+     * stopped lane is neither processed nor acknowledged.
+     *
+     * @param listenerId the Id of the listener container consuming the record.
+     * @param partition used to choose the lane when the record has no key.
+     */
+    void execute(final String listenerId, final String key, final int partition, final Acknowledgment acknowledgment, final Runnable task) {
+        listenerIds.add(listenerId);
+        final int hash = key != null ? key.hashCode() : partition;
+        final int index = Math.floorMod(hash, lanes.size());
+        if (stoppedLanes.contains(index)) {
+            log.debug("Record not processed as lane [" + index + "] is stopped");
+            return;
+        }
+        final BlockingQueue<Runnable> lane = lanes.get(index);
+        lane.add(() -> {
+            if (runWithRetry(index, task)) {
+                acknowledgment.acknowledge();
+            }
+        });
+        if (lane.size() >= config.getLaneCapacity()) {
+            pause("lane [" + index + "] is full");
+        }
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    @Override
+    public Health health() {
+        return stoppedLanes.isEmpty()
+                ? Health.up().build()
+                : Health.down().withDetail("stoppedLanes", Set.copyOf(stoppedLanes)).build();
+    }
+
+    private static int connectionPoolSize(final DataSource dataSource, final int defaultSize) throws SQLException {
+        return dataSource.isWrapperFor(HikariDataSource.class)
+                ? dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize()
+                : defaultSize;
+    }
+
+    private void runLane(final int index, final BlockingQueue<Runnable> lane) {
+        while (running && !stoppedLanes.contains(index)) {
+            try {
+                lane.take().run();
+                if (paused) {
+                    resumeOnceDrained();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Error processing message on lane: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Each attempt holds a permit only while it runs, so that a lane backing off does not hold up the other lanes.
+     *
+     * @return false if the lane has been stopped, or was interrupted while waiting to retry, in which case the record
+     * must not be acknowledged.
+     */
+    private boolean runWithRetry(final int index, final Runnable task) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            try {
+                task.run();
+                return true;
+            } catch (Exception e) {
+                if (!(e instanceof Retryable)) {
+                    log.error("Error processing message: " + e.getMessage());
+                    return true;
+                }
+                if (attempt >= config.getMaxAttempts()) {
+                    log.error("Error processing message after [" + attempt + "] attempts, stopping lane [" + index + "]: " + e.getMessage());
+                    stoppedLanes.add(index);
+                    pause("lane [" + index + "] is stopped");
+                    return false;
+                }
+                log.debug("Retrying message after retryable exception, attempt [" + attempt + "]");
+            } finally {
+                inFlight.release();
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(config.getRetryBackoff().toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Pausing only takes effect on the next poll, so the records of the current poll are still queued.
+     */
+    private synchronized void pause(final String reason) {
+        if (!paused) {
+            log.warn("Pausing the parallel listeners as " + reason);
+            paused = true;
+            forEachContainer(MessageListenerContainer::pause);
+        }
+    }
+
+    /**
+     * A stopped lane keeps the containers paused until the service is restarted.
+     */
+    private synchronized void resumeOnceDrained() {
+        if (paused && stoppedLanes.isEmpty() && lanes.stream().allMatch(lane -> lane.size() <= config.getLaneCapacity() / 2)) {
+            log.info("Resuming the parallel listeners");
+            paused = false;
+            forEachContainer(MessageListenerContainer::resume);
+        }
+    }
+
+    private void forEachContainer(final Consumer<MessageListenerContainer> action) {
+        listenerIds.forEach(listenerId -> {
+            final MessageListenerContainer container = registry.getListenerContainer(listenerId);
+            if (container != null) {
+                action.accept(container);
+            }
+        });
+    }
+
+    /**
+     * Records still queued are not acknowledged, and so are redelivered (and deduplicated) once consumed again.
+     */
+    @Override
+    public void destroy() {
+        running = false;
+        laneThreads.forEach(Thread::interrupt);
+    }
+}
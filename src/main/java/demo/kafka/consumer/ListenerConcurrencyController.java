@@ -0,0 +1,191 @@
+package demo.kafka.consumer;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sizes the concurrency of each listener container, that is its number of consumers, to the lag on the partitions
+ * assigned to it: one consumer for each lagPerConsumer records behind, within the configured bounds, and never more
+ * consumers than the container has partitions assigned, as any more would sit idle.
+ *
+ * A container's concurrency only takes effect when it starts, so it is restarted to apply a change, which rebalances the
+ * group.  Records in flight are redelivered and deduplicated.  Changes are therefore at least a cooldown apart.  The
+ * restarted container's partitions are no longer paused, so flow control is reset for it.
+ *
+ * The checks block on the admin client, so the scheduler is given a thread for each scheduled task (see
+ * spring.task.scheduling.pool.size) so that they do not hold up the flow control checks.
+ */
+@Slf4j
+@Component
+public class ListenerConcurrencyController {
+
+    public static final String CONCURRENCY = "demo.listener.concurrency";
+    public static final String LAG = "demo.listener.lag";
+
+    private static final long ADMIN_TIMEOUT_SECONDS = 10;
+
+    private final KafkaDemoProperties.ListenerConcurrency config;
+    private final KafkaListenerEndpointRegistry registry;
+    private final FlowController flowController;
+    private final Function<Map<String, Object>, Admin> adminFactory;
+    private final KafkaAdmin kafkaAdmin;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, ContainerScale> scales = new ConcurrentHashMap<>();
+    private Admin admin;
+
+    @Autowired
+    public ListenerConcurrencyController(final KafkaDemoProperties properties,
+                                         final KafkaListenerEndpointRegistry registry,
+                                         final FlowController flowController,
+                                         final KafkaAdmin kafkaAdmin,
+                                         final MeterRegistry meterRegistry) {
+        this(properties, registry, flowController, kafkaAdmin, meterRegistry, Admin::create);
+    }
+
+    ListenerConcurrencyController(final KafkaDemoProperties properties,
+                                  final KafkaListenerEndpointRegistry registry,
+                                  final FlowController flowController,
+                                  final KafkaAdmin kafkaAdmin,
+                                  final MeterRegistry meterRegistry,
+                                  final Function<Map<String, Object>, Admin> adminFactory) {
+        this.config = properties.getListenerConcurrency();
+        this.registry = registry;
+        this.flowController = flowController;
+        this.kafkaAdmin = kafkaAdmin;
+        this.meterRegistry = meterRegistry;
+        this.adminFactory = adminFactory;
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    @Scheduled(fixedDelayString = "${kafkademo.listenerConcurrency.checkInterval}")
+    public void check() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        for (MessageListenerContainer container : registry.getListenerContainers()) {
+            if (container instanceof ConcurrentMessageListenerContainer<?, ?> concurrentContainer && container.isRunning()) {
+                try {
+                    scale(concurrentContainer);
+                } catch (Exception e) {
+                    log.warn("Failed to check the concurrency of listener {}: {}", container.getListenerId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (admin != null) {
+            admin.close();
+            admin = null;
+        }
+    }
+
+    private void scale(final ConcurrentMessageListenerContainer<?, ?> container) throws Exception {
+        final ContainerScale scale = scale(container.getListenerId());
+        scale.concurrency = container.getConcurrency();
+        final Collection<TopicPartition> assigned = container.getAssignedPartitions();
+        if (assigned == null || assigned.isEmpty()) {
+            return;
+        }
+        scale.lag = lag(container.getGroupId(), assigned);
+        final int desired = desiredConcurrency(scale.lag, assigned.size());
+        final long now = System.nanoTime();
+        if (desired != scale.concurrency && now - scale.changedAt >= config.getCooldown().toNanos()) {
+            log.info("Scaling listener {} from {} to {} consumers, with a lag of {} on {} assigned partitions",
+                    container.getListenerId(), scale.concurrency, desired, scale.lag, assigned.size());
+            scale.changedAt = now;
+            container.stop(() -> {
+                flowController.reset(container.getListenerId());
+                container.setConcurrency(desired);
+                container.start();
+            });
+        }
+    }
+
+    /**
+     * One consumer for each lagPerConsumer records behind, and no more than the partitions assigned.
+     */
+    int desiredConcurrency(final long lag, final int assignedPartitions) {
+        final int max = Math.max(1, Math.min(config.getMaxConcurrency(), assignedPartitions));
+        final int min = Math.min(config.getMinConcurrency(), max);
+        final long forLag = (lag + config.getLagPerConsumer() - 1) / config.getLagPerConsumer();
+        return (int) Math.max(min, Math.min(max, forLag));
+    }
+
+    /**
+     * The records behind the end of each partition, from the group's committed offsets.  A partition with no committed
+     * offset has no lag counted.
+     */
+    private long lag(final String groupId, final Collection<TopicPartition> partitions) throws Exception {
+        final Admin admin = admin();
+        final Map<TopicPartition, OffsetAndMetadata> committed = admin.listConsumerGroupOffsets(groupId)
+                .partitionsToOffsetAndMetadata().get(ADMIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final Map<TopicPartition, ListOffsetsResultInfo> ends = admin.listOffsets(partitions.stream()
+                .collect(Collectors.toMap(Function.identity(), partition -> OffsetSpec.latest())))
+                .all().get(ADMIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long lag = 0;
+        for (TopicPartition partition : partitions) {
+            final OffsetAndMetadata offset = committed.get(partition);
+            final ListOffsetsResultInfo end = ends.get(partition);
+            if (offset != null && end != null) {
+                lag += Math.max(0, end.offset() - offset.offset());
+            }
+        }
+        return lag;
+    }
+
+    private synchronized Admin admin() {
+        if (admin == null) {
+            admin = adminFactory.apply(kafkaAdmin.getConfigurationProperties());
+        }
+        return admin;
+    }
+
+    private ContainerScale scale(final String listenerId) {
+        return scales.computeIfAbsent(listenerId, id -> {
+            final ContainerScale scale = new ContainerScale();
+            Gauge.builder(CONCURRENCY, scale, s -> s.concurrency)
+                    .description("The consumers of each listener container")
+                    .tag("listener", id)
+                    .register(meterRegistry);
+            Gauge.builder(LAG, scale, s -> s.lag)
+                    .description("The records the listener container's assigned partitions are behind")
+                    .tag("listener", id)
+                    .register(meterRegistry);
+            return scale;
+        });
+    }
+
+    private static final class ContainerScale {
+        private volatile int concurrency;
+        private volatile long lag;
+        // Allows the first change straight away.
+        private volatile long changedAt = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+    }
+}
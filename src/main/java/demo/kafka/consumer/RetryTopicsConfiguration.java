@@ -0,0 +1,95 @@
+package demo.kafka.consumer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import demo.kafka.event.EventTimestamps;
+import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.properties.KafkaDemoProperties;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerInterceptor;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
+import org.springframework.kafka.retrytopic.RetryTopicConfigurationBuilder;
+
+/**
+ * Retries the record listeners' retryable failures from a chain of retry topics, each consumed once its backoff has
+ * passed, so that the inbound partition carries on flowing past a failing record.  All other failures, and records
+ * still failing on the last attempt, are sent to the dead letter topic.
+ *
+ * The records are forwarded with their original headers, so a retry keeps its event Id and is deduplicated as before.  A
+ * failed attempt rolls back its processed event record, so it is not rejected as a duplicate on the next attempt.  Each
+ * record is also stamped with its origin timestamp, so that the end to end latency of a retried event is measured from
+ * when it was first produced.
+ */
+@Configuration
+@ConditionalOnProperty(name = "kafkademo.retryTopics.enabled", havingValue = "true")
+public class RetryTopicsConfiguration {
+
+    /**
+     * The records are forwarded as consumed, so their values are sent as the raw bytes.
+     */
+    @Bean
+    public ProducerFactory<String, byte[]> retryTopicProducerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        return new DefaultKafkaProducerFactory<>(config);
+    }
+
+    /**
+     * Retry topics are not supported by batch listeners, nor by the parallel listeners as they acknowledge records
+     * before processing them.  With Kafka transactions failed records are rolled back and redelivered in place instead.
+     */
+    @Bean
+    public RetryTopicConfiguration inboundRetryTopics(final ProducerFactory<String, byte[]> retryTopicProducerFactory,
+                                                      final KafkaDemoProperties properties) {
+        if (properties.getListenerMode() != KafkaDemoProperties.ListenerMode.RECORD || properties.getKafkaTransactions().isEnabled()) {
+            throw new IllegalStateException("Retry topics require the record listener mode, without Kafka transactions");
+        }
+        final KafkaDemoProperties.RetryTopics config = properties.getRetryTopics();
+        final KafkaTemplate<String, byte[]> retryTopicTemplate = new KafkaTemplate<>(retryTopicProducerFactory);
+        retryTopicTemplate.setProducerInterceptor(new OriginTimestampInterceptor());
+        return RetryTopicConfigurationBuilder.newInstance()
+                .includeTopics(List.of(KafkaIdempotentConsumer.TOPIC, KafkaIdempotentConsumerWithOutbox.TOPIC, KafkaNonIdempotentConsumer.TOPIC))
+                .maxAttempts(config.getMaxAttempts())
+                .exponentialBackoff(config.getInitialInterval().toMillis(), config.getMultiplier(), config.getMaxInterval().toMillis())
+                .retryOn(KafkaDemoRetryableException.class)
+                .traversingCauses()
+                .autoCreateTopicsWith(config.getPartitions(), config.getReplicationFactor())
+                .create(retryTopicTemplate);
+    }
+
+    static class OriginTimestampInterceptor implements ProducerInterceptor<String, byte[]> {
+
+        @Override
+        public ProducerRecord<String, byte[]> onSend(final ProducerRecord<String, byte[]> record) {
+            EventTimestamps.stampOrigin(record.headers());
+            return record;
+        }
+
+        @Override
+        public void onAcknowledgement(final RecordMetadata metadata, final Exception exception) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void configure(final Map<String, ?> configs) {
+        }
+    }
+}
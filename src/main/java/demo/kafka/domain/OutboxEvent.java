@@ -22,8 +22,8 @@ public class OutboxEvent {
     public static final int VARCHAR_MAX_LENGTH = 4096;
 
     @Id
-    @GeneratedValue(generator = "uuid2")
-    @GenericGenerator(name = "uuid2", strategy = "uuid2")
+    @GeneratedValue(generator = "timeOrderedUuid")
+    @GenericGenerator(name = "timeOrderedUuid", strategy = "demo.kafka.domain.TimeOrderedUuidGenerator")
     private UUID id;
 
     @Column(nullable = false, length = VARCHAR_MAX_LENGTH)
@@ -36,4 +36,11 @@ public class OutboxEvent {
     private String destination;
 
     private String version;
+
+    // The timestamps of the inbound event, placed in headers of the outbound event by Debezium or the outbox relay.
+    private Long originTimestamp;
+
+    private Long inboundTimestamp;
+
+    private Long consumedTimestamp;
 }
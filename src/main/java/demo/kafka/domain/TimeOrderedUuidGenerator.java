@@ -0,0 +1,16 @@
+package demo.kafka.domain;
+
+import demo.kafka.lib.TimeOrderedUuid;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+
+/**
+ * Assigns time ordered UUIDs as entity Ids, so that inserts are appended to the right hand edge of the primary key index.
+ */
+public class TimeOrderedUuidGenerator implements IdentifierGenerator {
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        return TimeOrderedUuid.generate();
+    }
+}
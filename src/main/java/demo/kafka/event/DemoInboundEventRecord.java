@@ -0,0 +1,28 @@
+package demo.kafka.event;
+
+import java.util.UUID;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * An inbound event together with the record metadata required to process it as part of a batch.
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DemoInboundEventRecord {
+
+    private UUID eventId;
+
+    private String key;
+
+    private DemoInboundEvent event;
+
+    private EventSource source;
+
+    private EventTimestamps timestamps;
+}
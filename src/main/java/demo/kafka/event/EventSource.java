@@ -0,0 +1,16 @@
+package demo.kafka.event;
+
+import lombok.Value;
+
+/**
+ * The topic partition and offset an inbound event was consumed from.
+ */
+@Value
+public class EventSource {
+
+    String topic;
+
+    int partition;
+
+    long offset;
+}
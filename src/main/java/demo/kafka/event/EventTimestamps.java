@@ -0,0 +1,86 @@
+package demo.kafka.event;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import lombok.Value;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.kafka.support.KafkaHeaders;
+
+/**
+ * The times, in epoch milliseconds, at each hop of an inbound event on its way through the service.  They are carried on
+ * as headers of the outbound event, and as columns of the outbox event, so that the end to end latency can be measured
+ * downstream as well as here.
+ */
+@Value
+public class EventTimestamps {
+
+    public static final String ORIGIN_TIMESTAMP_HEADER_KEY = "demo_originTimestamp";
+    public static final String INBOUND_TIMESTAMP_HEADER_KEY = "demo_inboundTimestamp";
+    public static final String CONSUMED_TIMESTAMP_HEADER_KEY = "demo_consumedTimestamp";
+
+    // When the event was first produced, by the service upstream that stamped the origin header, or otherwise to the
+    // inbound topic.
+    long origin;
+
+    // The timestamp of the inbound record.
+    long inbound;
+
+    // When the inbound record was consumed.
+    long consumed;
+
+    /**
+     * @param originHeader the origin header of the inbound record, or null if it has none.
+     */
+    public static EventTimestamps consumed(final String originHeader, final long recordTimestamp) {
+        final long now = System.currentTimeMillis();
+        return new EventTimestamps(originHeader != null ? parse(originHeader, recordTimestamp) : recordTimestamp, recordTimestamp, now);
+    }
+
+    public static EventTimestamps consumed(final Headers headers, final long recordTimestamp) {
+        final Header originHeader = headers.lastHeader(ORIGIN_TIMESTAMP_HEADER_KEY);
+        return consumed(originHeader != null && originHeader.value() != null
+                ? new String(originHeader.value(), StandardCharsets.UTF_8) : null, recordTimestamp);
+    }
+
+    /**
+     * Stamps the origin header on a record forwarded to a retry or dead letter topic, from the timestamp of the record as
+     * first consumed, so that a retried event is measured from its origin rather than from its last retry.
+     */
+    public static void stampOrigin(final Headers headers) {
+        if (headers.lastHeader(ORIGIN_TIMESTAMP_HEADER_KEY) != null) {
+            return;
+        }
+        // The first forward stamps the origin, so the original timestamp is that of the inbound record.
+        final Header originalTimestamp = headers.lastHeader(KafkaHeaders.ORIGINAL_TIMESTAMP);
+        if (originalTimestamp != null && originalTimestamp.value() != null && originalTimestamp.value().length == Long.BYTES) {
+            headers.add(ORIGIN_TIMESTAMP_HEADER_KEY, toBytes(ByteBuffer.wrap(originalTimestamp.value()).getLong()));
+        }
+    }
+
+    public void addTo(final Headers headers) {
+        headers.add(ORIGIN_TIMESTAMP_HEADER_KEY, toBytes(origin));
+        headers.add(INBOUND_TIMESTAMP_HEADER_KEY, toBytes(inbound));
+        headers.add(CONSUMED_TIMESTAMP_HEADER_KEY, toBytes(consumed));
+    }
+
+    /**
+     * The timestamps are sent as text, as is the event Id, and as Debezium sends the outbox event columns it places in
+     * headers.
+     */
+    private static byte[] toBytes(final long timestamp) {
+        return Long.toString(timestamp).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A malformed origin falls back to the timestamp of the inbound record.
+     */
+    private static long parse(final String timestamp, final long defaultTimestamp) {
+        try {
+            return Long.parseLong(timestamp.trim());
+        } catch (NumberFormatException e) {
+            return defaultTimestamp;
+        }
+    }
+}
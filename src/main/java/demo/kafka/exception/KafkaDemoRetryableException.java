@@ -1,6 +1,10 @@
 package demo.kafka.exception;
 
 public class KafkaDemoRetryableException extends RuntimeException implements Retryable {
+    public KafkaDemoRetryableException(String message) {
+        super(message);
+    }
+
     public KafkaDemoRetryableException(Throwable cause) {
         super(cause);
     }
@@ -0,0 +1,25 @@
+package demo.kafka.lib;
+
+import java.sql.DatabaseMetaData;
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+/**
+ * Some queries, such as the table statistics, are only supported on Postgres.  The tests run against H2 in its
+ * PostgreSQL mode, which reports itself as H2.
+ */
+public final class Databases {
+
+    private Databases() {
+    }
+
+    public static boolean isPostgres(final DataSource dataSource) {
+        try {
+            return "PostgreSQL".equals(JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName));
+        } catch (MetaDataAccessException e) {
+            return false;
+        }
+    }
+}
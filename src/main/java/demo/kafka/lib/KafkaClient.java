@@ -1,12 +1,18 @@
 package demo.kafka.lib;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
+import demo.kafka.event.EventTimestamps;
 import demo.kafka.exception.KafkaDemoException;
+import demo.kafka.exception.KafkaDemoRetryableException;
 import demo.kafka.properties.KafkaDemoProperties;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RetriableException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
@@ -19,26 +25,76 @@ public class KafkaClient {
     private KafkaDemoProperties properties;
 
     @Autowired
-    private KafkaTemplate kafkaTemplate;
+    private KafkaTemplate<String, String> kafkaTemplate;
 
     public static final String EVENT_ID_HEADER_KEY = "demo_eventIdHeader";
 
-    public SendResult sendMessage(String key, String data) {
+    /**
+     * Sends the message and waits for it to be acknowledged.
+     */
+    public SendResult<String, String> sendMessage(String key, String data, EventTimestamps timestamps) {
+        return await(sendMessageAsync(key, data, timestamps));
+    }
+
+    /**
+     * Sends the message without waiting for it to be acknowledged, so that successive sends are batched by the producer
+     * while its earlier requests are in flight.
+     * The message carries the timestamps of the inbound event as headers, and its own timestamp is the time it was sent.
+     *
+     * The returned result must be passed to await before the message is considered sent.
+     */
+    public CompletableFuture<SendResult<String, String>> sendMessageAsync(String key, String data, EventTimestamps timestamps) {
         try {
-            String payload = "eventId: " + UUID.randomUUID() + ", instanceId: "+properties.getInstanceId()+", payload: " + data;
+            String payload = buildPayload(properties.getInstanceId(), data);
             final ProducerRecord<String, String> record =
                     new ProducerRecord<>(properties.getOutboundTopic(), key, payload);
+            timestamps.addTo(record.headers());
 
-            final SendResult result = (SendResult) kafkaTemplate.send(record).get();
-            final RecordMetadata metadata = result.getRecordMetadata();
-
-            log.debug(String.format("Sent record(key=%s value=%s) meta(topic=%s, partition=%d, offset=%d)",
-                    record.key(), record.value(), metadata.topic(), metadata.partition(), metadata.offset()));
-
-            return result;
+            return kafkaTemplate.send(record).whenComplete((result, e) -> {
+                if (result != null && log.isDebugEnabled()) {
+                    final RecordMetadata metadata = result.getRecordMetadata();
+                    log.debug(String.format("Sent record(key=%s value=%s) meta(topic=%s, partition=%d, offset=%d)",
+                            record.key(), record.value(), metadata.topic(), metadata.partition(), metadata.offset()));
+                }
+            });
         } catch (Exception e) {
             log.error("Error sending message to topic " + properties.getOutboundTopic(), e);
             throw new KafkaDemoException(e);
         }
     }
+
+    /**
+     * @return the outbound payload, stamped with a new event Id.
+     */
+    public static String buildPayload(UUID instanceId, String data) {
+        return "eventId: " + TimeOrderedUuid.generate() + ", instanceId: " + instanceId + ", payload: " + data;
+    }
+
+    /**
+     * @throws KafkaDemoRetryableException if the send failed with a retriable error, otherwise KafkaDemoException.
+     */
+    public SendResult<String, String> await(CompletableFuture<SendResult<String, String>> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KafkaDemoException(e);
+        } catch (ExecutionException | CompletionException e) {
+            log.error("Error sending message to topic " + properties.getOutboundTopic(), e.getCause());
+            if (isRetriable(e.getCause())) {
+                throw new KafkaDemoRetryableException(e.getCause());
+            }
+            throw new KafkaDemoException(e.getCause());
+        }
+    }
+
+    private static boolean isRetriable(Throwable e) {
+        // Spring wraps the producer's exception in a KafkaProducerException.
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RetriableException) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,52 @@
+package demo.kafka.lib;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates time ordered (version 7) UUIDs.
+ *
+ * The most significant 48 bits hold the Unix epoch millis, followed by a 12 bit sequence that keeps the UUIDs generated
+ * within the same milli strictly increasing across all threads.  Successive UUIDs therefore sort (and so are inserted
+ * into a B-tree index) in the order they were generated.  The remaining 62 bits are random, taken from
+ * ThreadLocalRandom rather than the contended SecureRandom behind UUID.randomUUID(), as these Ids need only be unique,
+ * not unguessable.
+ */
+public final class TimeOrderedUuid {
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+    private static final long VARIANT_MASK = 0x3FFFFFFFFFFFFFFFL;
+
+    // The last epoch millis and sequence issued, as (millis << 12 | sequence).
+    private static final AtomicLong lastTimestampAndSequence = new AtomicLong();
+
+    private TimeOrderedUuid() {
+    }
+
+    public static UUID generate() {
+        final long timestampAndSequence = nextTimestampAndSequence(System.currentTimeMillis());
+        final long mostSigBits = ((timestampAndSequence >>> SEQUENCE_BITS) << 16)
+                | VERSION
+                | (timestampAndSequence & ((1L << SEQUENCE_BITS) - 1));
+        final long leastSigBits = (ThreadLocalRandom.current().nextLong() & VARIANT_MASK) | VARIANT;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    /**
+     * Once the sequence for a milli is exhausted (or the clock steps back) the timestamp runs ahead of the clock, until
+     * the clock catches up.
+     */
+    private static long nextTimestampAndSequence(long epochMillis) {
+        final long candidate = epochMillis << SEQUENCE_BITS;
+        long last;
+        long next;
+        do {
+            last = lastTimestampAndSequence.get();
+            next = Math.max(candidate, last + 1);
+        } while (!lastTimestampAndSequence.compareAndSet(last, next));
+        return next;
+    }
+}
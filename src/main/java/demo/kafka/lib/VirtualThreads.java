@@ -0,0 +1,36 @@
+package demo.kafka.lib;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Creates the service's own threads as virtual threads when enabled, and as platform threads otherwise.
+ *
+ * The service is built for Java 17, so virtual threads (Java 21) are created reflectively, and enabling them fails fast
+ * on an earlier runtime.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @param namePrefix each thread is named with this prefix followed by a counter.
+     */
+    public static ThreadFactory threadFactory(final boolean virtual, final String namePrefix) {
+        if (!virtual) {
+            return new CustomizableThreadFactory(namePrefix);
+        }
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            final Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21, running on Java " + Runtime.version().feature(), e);
+        }
+    }
+}
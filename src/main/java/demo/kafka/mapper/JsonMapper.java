@@ -1,24 +1,43 @@
 package demo.kafka.mapper;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
 public class JsonMapper {
 
 	private static final ObjectMapper objectMapper = new ObjectMapper();
 
+	// Readers are immutable and thread safe, so one is built per type and shared.
+	private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
 	static {
 		objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
 		objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 		objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
 		objectMapper.configure(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS, false);
+		// Includes the Blackbird module, which generates the property accessors rather than using reflection.
 		objectMapper.findAndRegisterModules();
 	}
 
 	public static <T> T readFromJson(String json, Class<T> clazz) throws MappingException {
 		try {
-			return objectMapper.readValue(json, clazz);
+			return readerFor(clazz).readValue(json);
+		} catch (Exception e) {
+			throw new MappingException(e);
+		}
+	}
+
+	/**
+	 * Reads the JSON straight from the UTF-8 bytes of a consumed record, without first decoding them to a String.
+	 */
+	public static <T> T readFromJson(byte[] json, Class<T> clazz) throws MappingException {
+		try {
+			return readerFor(clazz).readValue(json);
 		} catch (Exception e) {
 			throw new MappingException(e);
 		}
@@ -31,4 +50,8 @@ public class JsonMapper {
 			throw new MappingException(e);
 		}
 	}
+
+	private static ObjectReader readerFor(Class<?> clazz) {
+		return readers.computeIfAbsent(clazz, objectMapper::readerFor);
+	}
 }
@@ -0,0 +1,164 @@
+package demo.kafka.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times each stage of processing an inbound event, and counts the outcome of each event by listener and topic.
+ *
+ * The stage timers publish percentile histograms, so that latency percentiles can be aggregated across instances.  So
+ * does the end to end latency, from an event being first produced to its outbound event being sent, or its outbox event
+ * committed, for each path through the service.
+ *
+ * The time from the JVM starting to the first inbound event being received is also published, as the measure of how
+ * soon an instance takes its share of the load after a deploy.
+ */
+@Slf4j
+@Component
+public class ProcessingMetrics {
+
+    public static final String STAGE_DURATION = "demo.stage.duration";
+    public static final String CONSUMER_EVENTS = "demo.consumer.events";
+    public static final String FIRST_EVENT = "demo.startup.first.event";
+    public static final String END_TO_END_LATENCY = "demo.end.to.end.latency";
+
+    public enum Stage {
+        JSON_MAPPING,
+        DEDUPLICATE,
+        THIRDPARTY_CALL,
+        KAFKA_SEND,
+        OUTBOX_WRITE;
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    public enum Path {
+        IDEMPOTENT,
+        NON_IDEMPOTENT,
+        OUTBOX;
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    public enum Outcome {
+        PROCESSED,
+        DUPLICATE,
+        // The event's claim expired, and was taken over by another consumer, before the event could be completed.
+        CLAIM_LOST,
+        RETRYABLE_FAILURE,
+        NON_RETRYABLE_FAILURE;
+
+        public static Outcome of(final boolean processed) {
+            return processed ? PROCESSED : DUPLICATE;
+        }
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Map<Path, Timer> endToEndTimers = new EnumMap<>(Path.class);
+    // The consumer event counters by listener then topic, registered for every outcome when the topic is first seen.
+    private final Map<String, Map<String, Map<Outcome, Counter>>> consumerEventCounters = new ConcurrentHashMap<>();
+    // The JVM uptime when the first inbound event was received, or NaN until then.
+    private volatile double firstEventMillis = Double.NaN;
+
+    public ProcessingMetrics(final MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder(STAGE_DURATION)
+                    .description("The time taken by each stage of processing an inbound event")
+                    .tag("stage", stage.tag())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        for (Path path : Path.values()) {
+            endToEndTimers.put(path, Timer.builder(END_TO_END_LATENCY)
+                    .description("The time from an inbound event being first produced to its outbound or outbox event")
+                    .tag("path", path.tag())
+                    .publishPercentileHistogram()
+                    .maximumExpectedValue(Duration.ofMinutes(10))
+                    .register(meterRegistry));
+        }
+        TimeGauge.builder(FIRST_EVENT, this, TimeUnit.MILLISECONDS, metrics -> metrics.firstEventMillis)
+                .description("The time from the JVM starting to the first inbound event being received")
+                .register(meterRegistry);
+    }
+
+    public <T> T time(final Stage stage, final Supplier<T> supplier) {
+        return stageTimers.get(stage).record(supplier);
+    }
+
+    public void time(final Stage stage, final Runnable runnable) {
+        stageTimers.get(stage).record(runnable);
+    }
+
+    /**
+     * Records the latency up to now.  A negative latency, from the producer's clock being ahead, is not recorded.
+     */
+    public void recordEndToEnd(final Path path, final long originTimestamp) {
+        final long latencyMillis = System.currentTimeMillis() - originTimestamp;
+        if (latencyMillis >= 0) {
+            endToEndTimers.get(path).record(latencyMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Called by the consumers as they receive each inbound event, so that the first event is timed from its receipt
+     * rather than from the end of its processing, which includes the thirdparty call and any retries.
+     */
+    public void received() {
+        if (Double.isNaN(firstEventMillis)) {
+            firstEventReceived();
+        }
+    }
+
+    public void count(final String listener, final String topic, final Outcome outcome) {
+        count(listener, topic, outcome, 1);
+    }
+
+    public void count(final String listener, final String topic, final Outcome outcome, final int events) {
+        if (events > 0) {
+            consumerEventCounters.computeIfAbsent(listener, l -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(topic, t -> consumerEventCounters(listener, topic))
+                    .get(outcome)
+                    .increment(events);
+        }
+    }
+
+    private Map<Outcome, Counter> consumerEventCounters(final String listener, final String topic) {
+        final Map<Outcome, Counter> counters = new EnumMap<>(Outcome.class);
+        for (Outcome outcome : Outcome.values()) {
+            counters.put(outcome, Counter.builder(CONSUMER_EVENTS)
+                    .description("The inbound events consumed, by outcome")
+                    .tags("listener", listener, "topic", topic, "outcome", outcome.tag())
+                    .register(meterRegistry));
+        }
+        return counters;
+    }
+
+    private synchronized void firstEventReceived() {
+        if (Double.isNaN(firstEventMillis)) {
+            firstEventMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+            log.info("First event received {}ms after the JVM started", (long) firstEventMillis);
+        }
+    }
+}
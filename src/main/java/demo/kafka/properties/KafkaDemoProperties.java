@@ -1,13 +1,19 @@
 package demo.kafka.properties;
 
 import java.net.URL;
+import java.time.Duration;
 import java.util.UUID;
-import javax.validation.constraints.NotNull;
 
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
 @Configuration
@@ -18,8 +24,279 @@ import org.springframework.validation.annotation.Validated;
 public class KafkaDemoProperties {
     @NotNull private String id;
     @NotNull private URL thirdpartyEndpoint;
+    @Valid @NotNull private ThirdpartyClient thirdpartyClient = new ThirdpartyClient();
+    @Valid @NotNull private ThirdpartyResponseCache thirdpartyResponseCache = new ThirdpartyResponseCache();
     @NotNull private String outboundTopic;
 
     // A unique Id for this instance of the service.
     @NotNull private UUID instanceId = UUID.randomUUID();
+
+    // Whether the consumers receive one record at a time, the whole poll as a batch, or hand records to key ordered lanes.
+    @NotNull private ListenerMode listenerMode = ListenerMode.RECORD;
+
+    @Valid @NotNull private ParallelListener parallelListener = new ParallelListener();
+
+    @Valid @NotNull private ListenerConcurrency listenerConcurrency = new ListenerConcurrency();
+
+    @Valid @NotNull private VirtualThreads virtualThreads = new VirtualThreads();
+
+    @Valid @NotNull private FlowControl flowControl = new FlowControl();
+
+    @Valid @NotNull private RetryTopics retryTopics = new RetryTopics();
+
+    @Valid @NotNull private ProcessedEventCache processedEventCache = new ProcessedEventCache();
+
+    @Valid @NotNull private ProcessedEventRetention processedEventRetention = new ProcessedEventRetention();
+
+    @Valid @NotNull private ProcessedEventLease processedEventLease = new ProcessedEventLease();
+
+    @Valid @NotNull private OutboxRelay outboxRelay = new OutboxRelay();
+
+    @Valid @NotNull private OutboxRetention outboxRetention = new OutboxRetention();
+
+    @Valid @NotNull private KafkaTransactions kafkaTransactions = new KafkaTransactions();
+
+    @Valid @NotNull private Startup startup = new Startup();
+
+    public enum ListenerMode {
+        RECORD,
+        BATCH,
+        PARALLEL
+    }
+
+    public enum OutboxRetentionMode {
+        NONE,
+        DELETE_ON_INSERT,
+        PURGE
+    }
+
+    @Getter
+    @Setter
+    public static class ProcessedEventCache {
+        private boolean enabled = false;
+
+        // The memory allowed for cached event Ids, at 16 bytes per event Id.
+        @NotNull private DataSize maxMemory = DataSize.ofMegabytes(16);
+
+        // The number of event Ids, most recently processed from each partition, loaded as the partition is assigned.
+        // Zero disables loading them.
+        @Min(0) private int eventsPerAssignedPartition = 5000;
+    }
+
+    @Getter
+    @Setter
+    public static class ProcessedEventRetention {
+        // Requires the partitioned processed_event table, so is only supported on Postgres.
+        private boolean enabled = false;
+
+        // How long an event Id is deduplicated for.  This should exceed the inbound topics' retention.
+        @NotNull private Duration dedupWindow = Duration.ofDays(8);
+
+        // The number of daily partitions to create ahead of the current day.  They are created on Postgres whether or not
+        // the retention is enabled.
+        @Min(1) private int partitionsAhead = 3;
+
+        // How often partitions are created ahead, and those older than the dedup window dropped.
+        @NotNull private Duration checkInterval = Duration.ofHours(1);
+    }
+
+    @Getter
+    @Setter
+    public static class ProcessedEventLease {
+        // Claims each event of the record and parallel idempotent consumers in one short transaction, and completes it in
+        // a second, so that no database connection is held during the thirdparty call.
+        private boolean enabled = false;
+
+        // How long a claimed event is held before another instance may reclaim it.  This should exceed the longest the
+        // thirdparty call and outbound send can take.
+        @NotNull private Duration duration = Duration.ofMinutes(2);
+    }
+
+    @Getter
+    @Setter
+    public static class OutboxRelay {
+        // Relays outbox events to Kafka from within the service, in place of Debezium.  Only supported on Postgres.
+        private boolean enabled = false;
+
+        @Min(1) private int batchSize = 500;
+
+        // The longest the relay waits before polling for new outbox events.
+        @NotNull private Duration pollInterval = Duration.ofSeconds(1);
+
+        // Wakes the relay on a Postgres notification as soon as outbox events are committed, rather than waiting for the
+        // next poll.
+        private boolean listenNotify = true;
+
+        // Deletes outbox events once published, or otherwise marks them as published.
+        private boolean deleteAfterPublish = true;
+
+        @NotNull private Duration sendTimeout = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class OutboxRetention {
+        // none keeps every outbox event.  deleteOnInsert deletes each outbox event in the transaction that inserts it, as
+        // Debezium captures the insert from the WAL.  purge deletes outbox events once published, a batch at a time.
+        @NotNull private OutboxRetentionMode mode = OutboxRetentionMode.NONE;
+
+        // Outbox events are purged once this old, allowing for Debezium lagging behind.  With the outbox relay they are
+        // purged once published this long ago.
+        @NotNull private Duration minAge = Duration.ofHours(1);
+
+        // At most one batch is purged each interval, which limits the rate of deletes competing with the outbox inserts.
+        @Min(1) private int batchSize = 1000;
+
+        @NotNull private Duration purgeInterval = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class KafkaTransactions {
+        // Sends the outbound events and consumer offsets of the (record mode) idempotent consumer in one Kafka transaction.
+        private boolean enabled = false;
+
+        // Suffixed with the instance Id, so that each instance has its own transactional producers.
+        @NotNull private String transactionIdPrefix = "demo-tx-";
+    }
+
+    @Getter
+    @Setter
+    public static class Startup {
+        // Exits as soon as the application is ready, for a training run that generates the CDS archive at exit.
+        private boolean exitWhenReady = false;
+    }
+
+    @Getter
+    @Setter
+    public static class ThirdpartyClient {
+        @NotNull private Duration connectTimeout = Duration.ofSeconds(2);
+
+        // The longest to wait for a response once the request is sent.
+        @NotNull private Duration readTimeout = Duration.ofSeconds(5);
+
+        // The longest to wait for a pooled connection, when all are in use.
+        @NotNull private Duration connectionRequestTimeout = Duration.ofSeconds(1);
+
+        @Min(1) private int maxConnections = 50;
+
+        // All calls are to the one thirdparty endpoint, so by default it may use the whole pool.
+        @Min(1) private int maxConnectionsPerRoute = 50;
+
+        // Pooled connections idle for longer are closed.
+        @NotNull private Duration idleTimeout = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class ThirdpartyResponseCache {
+        // Only safe to enable when the thirdparty call has no side effects.
+        private boolean enabled = false;
+
+        // How long a successful response is reused for the same key.
+        @NotNull private Duration ttl = Duration.ofSeconds(10);
+
+        @Min(1) private long maximumSize = 10_000;
+    }
+
+    @Getter
+    @Setter
+    public static class ParallelListener {
+        // The number of worker threads.  Records with the same key are always processed by the same lane, in order.
+        @Min(1) private int lanes = 16;
+
+        // The listener containers are paused once a lane has this many records waiting, and resumed once every lane is
+        // back below half that.
+        @Min(1) private int laneCapacity = 100;
+
+        // Attempts at processing a record that fails with a retryable error, before its lane is stopped and the listener
+        // containers paused.
+        @Min(1) private int maxAttempts = 10;
+
+        @NotNull private Duration retryBackoff = Duration.ofSeconds(1);
+
+        // Limits the records processed at once across all lanes, so that lanes wait for a permit rather than for a pooled
+        // database connection.  Defaults (0) to the size of the connection pool.
+        @Min(0) private int maxInFlight = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class ListenerConcurrency {
+        // Scales the consumers of each listener container with the lag on its assigned partitions.
+        private boolean enabled = false;
+
+        // The consumers each listener container starts with, and is never scaled below.
+        @Min(1) private int minConcurrency = 1;
+
+        // Also never more than the partitions assigned to the container.
+        @Min(1) private int maxConcurrency = 8;
+
+        // A consumer is added for each this many records the assigned partitions are behind.
+        @Min(1) private long lagPerConsumer = 1000;
+
+        @NotNull private Duration checkInterval = Duration.ofSeconds(30);
+
+        // Each change restarts the container and so rebalances the group, so changes are at least this far apart.
+        @NotNull private Duration cooldown = Duration.ofMinutes(2);
+    }
+
+    @Getter
+    @Setter
+    public static class VirtualThreads {
+        // Runs the listener containers, parallel listener lanes and outbox relay on virtual threads.  Requires Java 21.
+        private boolean enabled = false;
+    }
+
+    @Getter
+    @Setter
+    public static class FlowControl {
+        // Pauses the record and batch listeners' partitions while processing is slow or failing, and sizes the batch
+        // listeners' batches to the processing latency, so that consumers keep polling and stay in the group.
+        private boolean enabled = false;
+
+        // Partitions are paused when the average processing time of a record over a check interval exceeds this.
+        @NotNull private Duration latencyThreshold = Duration.ofSeconds(2);
+
+        // Partitions are paused when the proportion of records failing with a retryable error over a check interval
+        // exceeds this.
+        @DecimalMin("0.0") @DecimalMax("1.0") private double errorRateThreshold = 0.5;
+
+        // The least time partitions stay paused, before they are resumed.
+        @NotNull private Duration pauseDuration = Duration.ofSeconds(10);
+
+        @NotNull private Duration checkInterval = Duration.ofSeconds(1);
+
+        // The number of partitions resumed each check interval, so that load returns gradually.
+        @Min(1) private int resumeStep = 1;
+
+        // The share of max.poll.interval.ms that processing a batch is expected to take, at the current latency.
+        @DecimalMin("0.0") @DecimalMax("1.0") private double pollBudget = 0.5;
+    }
+
+    @Getter
+    @Setter
+    public static class RetryTopics {
+        // Retries the record listeners' retryable failures from retry topics, backing off between attempts, rather than
+        // redelivering them in place and blocking the records behind them.  Failures that are not retryable, or that still
+        // fail on the last attempt, are sent to the dead letter topic.  Requires the record listener mode, without Kafka
+        // transactions.
+        private boolean enabled = false;
+
+        // Attempts at processing a record, including the first from the inbound topic.
+        @Min(2) private int maxAttempts = 4;
+
+        // The backoff before the first retry, multiplied for each further retry up to the max interval.
+        @NotNull private Duration initialInterval = Duration.ofSeconds(1);
+
+        @DecimalMin("1.0") private double multiplier = 2.0;
+
+        @NotNull private Duration maxInterval = Duration.ofSeconds(30);
+
+        // The partitions of each retry and dead letter topic created.
+        @Min(1) private int partitions = 1;
+
+        // The broker default when -1.
+        private short replicationFactor = -1;
+    }
 }
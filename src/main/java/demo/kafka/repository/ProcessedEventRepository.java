@@ -7,5 +7,5 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface ProcessedEventRepository extends JpaRepository<ProcessedEvent, UUID> {
+public interface ProcessedEventRepository extends JpaRepository<ProcessedEvent, UUID>, ProcessedEventRepositoryCustom {
 }
@@ -0,0 +1,61 @@
+package demo.kafka.repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import demo.kafka.event.EventSource;
+
+public interface ProcessedEventRepositoryCustom {
+
+    enum Claim {
+        // The event is new, or its previous claim had expired, and is now claimed.
+        CLAIMED,
+        // The event has already been processed.
+        COMPLETE,
+        // The event is claimed by another consumer, whose lease has not yet expired.
+        PENDING
+    }
+
+    /**
+     * Inserts the event Id, with the partition and offset it was consumed from, unless it has already been processed.  A
+     * duplicate does not raise a constraint violation, so the current transaction remains usable.
+     *
+     * @return true if the event Id was inserted, or false if it is a duplicate.
+     */
+    boolean saveIfAbsent(UUID eventId, EventSource source);
+
+    /**
+     * Inserts the event Ids, each with its source, as a single batched statement, skipping any that have already been
+     * processed.
+     *
+     * @return the event Ids that were already present, and so are duplicates.
+     */
+    Set<UUID> saveAllIfAbsent(Map<UUID, EventSource> eventIds);
+
+    /**
+     * Claims the event for processing until the lease expires, by inserting it as pending unless already present, or
+     * otherwise by taking over a pending claim whose lease has expired.
+     */
+    Claim claim(UUID eventId, EventSource source, UUID leaseId, Instant leaseExpiresAt);
+
+    /**
+     * Completes the claimed event.
+     *
+     * @return false if the claim was lost, having expired and been taken over.
+     */
+    boolean complete(UUID eventId, UUID leaseId);
+
+    /**
+     * Removes the claimed event, so that it is claimed afresh when redelivered.
+     */
+    void release(UUID eventId, UUID leaseId);
+
+    /**
+     * @return the Ids of the events processed from the highest offsets of the partition, up to the limit, excluding any
+     * still pending.
+     */
+    List<UUID> findRecentEventIds(String topic, int partition, int limit);
+}
@@ -0,0 +1,165 @@
+package demo.kafka.repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import demo.kafka.event.EventSource;
+import demo.kafka.lib.Databases;
+import demo.kafka.properties.KafkaDemoProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+public class ProcessedEventRepositoryImpl implements ProcessedEventRepositoryCustom {
+
+    /**
+     * The conflict clause catches a duplicate processed on the same day, and the existence check catches a duplicate held
+     * in an earlier day's partition.  The existence check only looks as far back as the dedup window, so that the
+     * partitions older than it, not yet dropped, are pruned from the query.
+     */
+    private static final String INSERT_IF_ABSENT = "INSERT INTO processed_event (eventid, source_topic, source_partition, source_offset) "
+            + "SELECT CAST(? AS uuid), CAST(? AS varchar(255)), CAST(? AS int), CAST(? AS bigint) "
+            + "WHERE NOT EXISTS (SELECT 1 FROM processed_event WHERE eventid = ? AND processed_date >= ?) "
+            + "ON CONFLICT DO NOTHING";
+
+    private static final String CLAIM_IF_ABSENT = "INSERT INTO processed_event (eventid, source_topic, source_partition, source_offset, status, lease_id, lease_expires_at) "
+            + "SELECT CAST(? AS uuid), CAST(? AS varchar(255)), CAST(? AS int), CAST(? AS bigint), 'PENDING', CAST(? AS uuid), CAST(? AS timestamp with time zone) "
+            + "WHERE NOT EXISTS (SELECT 1 FROM processed_event WHERE eventid = ? AND processed_date >= ?) "
+            + "ON CONFLICT DO NOTHING";
+
+    /**
+     * A duplicate being inserted concurrently on the other side of midnight goes into another day's partition, so is not
+     * caught by the conflict clause.  The inserts of an event Id are therefore serialized by a lock held until the
+     * transaction ends, taken in a statement of its own so that the insert's existence check then sees the row committed
+     * by the other.  The event Ids are locked in order, so that two batches cannot deadlock.
+     */
+    private static final String LOCK_EVENT_IDS = "SELECT count(pg_advisory_xact_lock(hashtextextended(CAST(eventid AS text), 0))) "
+            + "FROM unnest(CAST(? AS uuid[])) AS ids(eventid)";
+
+    private static final String CLAIM_EXPIRED = "UPDATE processed_event "
+            + "SET lease_id = ?, lease_expires_at = ?, source_topic = ?, source_partition = ?, source_offset = ? "
+            + "WHERE eventid = ? AND status = 'PENDING' AND lease_expires_at < ?";
+
+    private static final String SELECT_STATUS = "SELECT status FROM processed_event WHERE eventid = ?";
+
+    private static final String COMPLETE = "UPDATE processed_event SET status = 'COMPLETE', lease_id = NULL, lease_expires_at = NULL "
+            + "WHERE eventid = ? AND lease_id = ?";
+
+    private static final String RELEASE = "DELETE FROM processed_event WHERE eventid = ? AND lease_id = ?";
+
+    // Pending events are excluded, as they may yet fail and be released.
+    private static final String SELECT_RECENT = "SELECT eventid FROM processed_event "
+            + "WHERE source_topic = ? AND source_partition = ? AND status = 'COMPLETE' ORDER BY source_offset DESC LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final KafkaDemoProperties properties;
+
+    // Only Postgres partitions the table, so only it needs the inserts of an event Id serializing.
+    private final boolean lockEventIds;
+
+    public ProcessedEventRepositoryImpl(final JdbcTemplate jdbcTemplate, final KafkaDemoProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = properties;
+        this.lockEventIds = Databases.isPostgres(jdbcTemplate.getDataSource());
+    }
+
+    @Override
+    public boolean saveIfAbsent(UUID eventId, EventSource source) {
+        lock(List.of(eventId));
+        return jdbcTemplate.update(INSERT_IF_ABSENT, eventId, topic(source), partition(source), offset(source), eventId, dedupFrom()) == 1;
+    }
+
+    @Override
+    public Set<UUID> saveAllIfAbsent(Map<UUID, EventSource> eventIds) {
+        lock(eventIds.keySet());
+        final LocalDate dedupFrom = dedupFrom();
+        final List<Map.Entry<UUID, EventSource>> entries = new ArrayList<>(eventIds.entrySet());
+        final int[][] updateCounts = jdbcTemplate.batchUpdate(INSERT_IF_ABSENT, entries, entries.size(), (ps, entry) -> {
+            ps.setObject(1, entry.getKey());
+            ps.setObject(2, topic(entry.getValue()));
+            ps.setObject(3, partition(entry.getValue()));
+            ps.setObject(4, offset(entry.getValue()));
+            ps.setObject(5, entry.getKey());
+            ps.setObject(6, dedupFrom);
+        });
+        final Set<UUID> duplicates = new HashSet<>();
+        int i = 0;
+        for (int[] batch : updateCounts) {
+            for (int updateCount : batch) {
+                // A row count of zero means the event Id was already present.
+                if (updateCount == 0) {
+                    duplicates.add(entries.get(i).getKey());
+                }
+                i++;
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * Should the claim be released between the statements, the event is reported as pending, so that it is retried.
+     */
+    @Override
+    public Claim claim(UUID eventId, EventSource source, UUID leaseId, Instant leaseExpiresAt) {
+        final Timestamp expiresAt = Timestamp.from(leaseExpiresAt);
+        lock(List.of(eventId));
+        if (jdbcTemplate.update(CLAIM_IF_ABSENT, eventId, topic(source), partition(source), offset(source), leaseId, expiresAt, eventId, dedupFrom()) == 1
+                || jdbcTemplate.update(CLAIM_EXPIRED, leaseId, expiresAt, topic(source), partition(source), offset(source), eventId, Timestamp.from(Instant.now())) == 1) {
+            return Claim.CLAIMED;
+        }
+        final List<String> status = jdbcTemplate.queryForList(SELECT_STATUS, String.class, eventId);
+        return status.contains(Claim.COMPLETE.name()) ? Claim.COMPLETE : Claim.PENDING;
+    }
+
+    @Override
+    public boolean complete(UUID eventId, UUID leaseId) {
+        return jdbcTemplate.update(COMPLETE, eventId, leaseId) == 1;
+    }
+
+    @Override
+    public void release(UUID eventId, UUID leaseId) {
+        jdbcTemplate.update(RELEASE, eventId, leaseId);
+    }
+
+    @Override
+    public List<UUID> findRecentEventIds(String topic, int partition, int limit) {
+        return jdbcTemplate.queryForList(SELECT_RECENT, UUID.class, topic, partition, limit);
+    }
+
+    private void lock(Collection<UUID> eventIds) {
+        if (lockEventIds) {
+            final UUID[] sorted = eventIds.stream().sorted().toArray(UUID[]::new);
+            jdbcTemplate.query(LOCK_EVENT_IDS, ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", sorted)), rs -> null);
+        }
+    }
+
+    /**
+     * The earliest day whose partition may hold an event Id still within the dedup window.  Without retention every
+     * partition is kept, and so is checked.
+     */
+    private LocalDate dedupFrom() {
+        final KafkaDemoProperties.ProcessedEventRetention retention = properties.getProcessedEventRetention();
+        return retention.isEnabled()
+                ? LocalDate.ofInstant(Instant.now().minus(retention.getDedupWindow()), ZoneOffset.UTC)
+                : LocalDate.EPOCH;
+    }
+
+    private static String topic(EventSource source) {
+        return source != null ? source.getTopic() : null;
+    }
+
+    private static Integer partition(EventSource source) {
+        return source != null ? source.getPartition() : null;
+    }
+
+    private static Long offset(EventSource source) {
+        return source != null ? source.getOffset() : null;
+    }
+}
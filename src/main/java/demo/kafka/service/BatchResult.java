@@ -0,0 +1,20 @@
+package demo.kafka.service;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The outcome of processing a batch of inbound events.  Events failing with a retryable error fail the whole batch, so
+ * are not counted here.
+ */
+@Builder
+@Value
+public class BatchResult {
+
+    int processed;
+
+    int duplicates;
+
+    // Events that failed with a non-retryable error, and were skipped.
+    int failed;
+}
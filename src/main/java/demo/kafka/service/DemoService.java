@@ -1,24 +1,44 @@
 package demo.kafka.service;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+import demo.kafka.cache.ProcessedEventCache;
+import demo.kafka.cache.ThirdpartyResponseCache;
 import demo.kafka.domain.OutboxEvent;
-import demo.kafka.domain.ProcessedEvent;
 import demo.kafka.event.DemoInboundEvent;
-import demo.kafka.exception.DuplicateEventException;
+import demo.kafka.event.DemoInboundEventRecord;
+import demo.kafka.event.EventSource;
+import demo.kafka.event.EventTimestamps;
 import demo.kafka.exception.KafkaDemoException;
 import demo.kafka.exception.KafkaDemoRetryableException;
 import demo.kafka.lib.KafkaClient;
+import demo.kafka.metrics.ProcessingMetrics;
+import demo.kafka.metrics.ProcessingMetrics.Outcome;
+import demo.kafka.metrics.ProcessingMetrics.Path;
+import demo.kafka.metrics.ProcessingMetrics.Stage;
 import demo.kafka.properties.KafkaDemoProperties;
 import demo.kafka.repository.OutboxEventRepository;
 import demo.kafka.repository.ProcessedEventRepository;
+import demo.kafka.repository.ProcessedEventRepositoryCustom.Claim;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DataAccessException;
 import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
@@ -40,44 +60,362 @@ public class DemoService {;
     @Autowired
     private OutboxEventRepository outboxEventRepository;
 
+    @Autowired
+    private ProcessedEventCache processedEventCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private ThirdpartyResponseCache thirdpartyResponseCache;
+
+    @Autowired
+    private ProcessingMetrics processingMetrics;
+
+    @Autowired
+    private OutboxRetentionService outboxRetentionService;
+
+    /**
+     * @return false if the event is a duplicate, and so has not been processed.
+     */
     @Transactional
-    public void processIdempotent(String eventId, String key, DemoInboundEvent event) {
-        deduplicate(UUID.fromString(eventId));
+    public boolean processIdempotent(String eventId, String key, DemoInboundEvent event, EventSource source, EventTimestamps timestamps) {
+        if (!deduplicate(UUID.fromString(eventId), source)) {
+            return false;
+        }
+        callThirdparty(key);
+        processingMetrics.time(Stage.KAFKA_SEND, () -> kafkaClient.sendMessage(key, event.getData(), timestamps));
+        processingMetrics.recordEndToEnd(Path.IDEMPOTENT, timestamps.getOrigin());
+        return true;
+    }
+
+    /**
+     * Processes the event within the Kafka transaction started by the listener container.  The outbound event is
+     * committed atomically with the consumer offsets, so a redelivered event will never have been emitted to
+     * read_committed consumers.
+     *
+     * The event is claimed with a lease, as processIdempotentWithLease, before the thirdparty call and the outbound send,
+     * and is only completed once the Kafka transaction has committed.  A concurrent duplicate is retried while the claim
+     * is live, so only one of them emits an outbound event.  Should the Kafka transaction abort the claim is released, and
+     * should this instance stop before completing the event, its lease expires, so the redelivered event is processed
+     * afresh either way rather than rejected as a duplicate.
+     *
+     * @return false if the event is a duplicate, and so has not been processed.
+     */
+    public boolean processIdempotentTransactional(String eventId, String key, DemoInboundEvent event, EventSource source, EventTimestamps timestamps) {
+        final UUID processedEventId = UUID.fromString(eventId);
+        final UUID leaseId = claim(processedEventId, source);
+        if (leaseId == null) {
+            return false;
+        }
+        // Registered on the Kafka transaction before any failure can abort it.
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                // The outbound event is only visible to read_committed consumers once committed.
+                processingMetrics.recordEndToEnd(Path.IDEMPOTENT, timestamps.getOrigin());
+                completeAfterCommit(processedEventId, leaseId);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    release(processedEventId, leaseId);
+                }
+            }
+        });
         callThirdparty(key);
-        kafkaClient.sendMessage(key, event.getData());
+        // Awaited by the commit of the Kafka transaction, which fails if the send fails.
+        processingMetrics.time(Stage.KAFKA_SEND, () -> kafkaClient.sendMessageAsync(key, event.getData(), timestamps));
+        return true;
     }
 
     @Transactional
-    public void processNonIdempotent(String key, DemoInboundEvent event) {
+    public void processNonIdempotent(String key, DemoInboundEvent event, EventTimestamps timestamps) {
         callThirdparty(key);
-        kafkaClient.sendMessage(key, event.getData());
+        processingMetrics.time(Stage.KAFKA_SEND, () -> kafkaClient.sendMessage(key, event.getData(), timestamps));
+        processingMetrics.recordEndToEnd(Path.NON_IDEMPOTENT, timestamps.getOrigin());
     }
 
+    /**
+     * @return false if the event is a duplicate, and so has not been processed.
+     */
     @Transactional
-    public void processIdempotentAndOutbox(String eventId, String key, DemoInboundEvent event) {
-        deduplicate(UUID.fromString(eventId));
+    public boolean processIdempotentAndOutbox(String eventId, String key, DemoInboundEvent event, EventSource source, EventTimestamps timestamps) {
+        if (!deduplicate(UUID.fromString(eventId), source)) {
+            return false;
+        }
         callThirdparty(key);
-        writeOutboxEvent(event.getData());
+        writeOutboxEvent(event.getData(), timestamps);
+        return true;
     }
 
-    private void deduplicate(UUID eventId) throws DuplicateEventException {
+    /**
+     * As processIdempotent, without a database connection held during the thirdparty call or the outbound send.  The event
+     * is claimed with a lease in one short transaction, and completed in a second once the outbound event has been sent.
+     *
+     * A failure releases the claim, so that the event is processed afresh if redelivered.  Should this instance stop
+     * before completing the event, its claim is taken over by the next consumer of the event once the lease has expired.
+     *
+     * @return DUPLICATE if the event has already been processed, or CLAIM_LOST if its outbound event was sent but the claim
+     * was taken over before the event was completed, so the outbound event may be sent again.
+     */
+    public Outcome processIdempotentWithLease(String eventId, String key, DemoInboundEvent event, EventSource source, EventTimestamps timestamps) {
+        final UUID processedEventId = UUID.fromString(eventId);
+        final UUID leaseId = claim(processedEventId, source);
+        if (leaseId == null) {
+            return Outcome.DUPLICATE;
+        }
+        try {
+            callThirdparty(key);
+            processingMetrics.time(Stage.KAFKA_SEND, () -> kafkaClient.sendMessage(key, event.getData(), timestamps));
+        } catch (RuntimeException e) {
+            release(processedEventId, leaseId);
+            throw e;
+        }
+        processingMetrics.recordEndToEnd(Path.IDEMPOTENT, timestamps.getOrigin());
+        if (!complete(processedEventId, leaseId, () -> {})) {
+            log.warn("Event claim expired before completion, so its outbound event may be sent again: {}", processedEventId);
+            return Outcome.CLAIM_LOST;
+        }
+        return Outcome.PROCESSED;
+    }
+
+    /**
+     * As processIdempotentAndOutbox, with the event claimed and completed as processIdempotentWithLease.  The outbox event
+     * is written in the same transaction that completes the event.
+     *
+     * @return DUPLICATE if the event has already been processed, or CLAIM_LOST if the claim was taken over before the event
+     * was completed, and so its outbox event was left to the consumer that took it over.
+     */
+    public Outcome processIdempotentAndOutboxWithLease(String eventId, String key, DemoInboundEvent event, EventSource source, EventTimestamps timestamps) {
+        final UUID processedEventId = UUID.fromString(eventId);
+        final UUID leaseId = claim(processedEventId, source);
+        if (leaseId == null) {
+            return Outcome.DUPLICATE;
+        }
+        final boolean completed;
         try {
-            processedEventRepository.saveAndFlush(new ProcessedEvent(eventId));
-            log.debug("Event persisted with Id: {}", eventId);
-        } catch (DataIntegrityViolationException e) {
+            callThirdparty(key);
+            completed = complete(processedEventId, leaseId, () -> writeOutboxEvent(event.getData(), timestamps));
+        } catch (RuntimeException e) {
+            release(processedEventId, leaseId);
+            throw e;
+        }
+        if (!completed) {
+            // Left to the consumer that took over the claim to write the outbox event.
+            log.warn("Event claim expired before completion: {}", processedEventId);
+            return Outcome.CLAIM_LOST;
+        }
+        return Outcome.PROCESSED;
+    }
+
+    /**
+     * Deduplicates the whole batch with one batched insert, then processes the remaining events in the same transaction.
+     *
+     * A non-retryable failure skips just that event, whereas a retryable failure rolls back the batch for redelivery.  As
+     * the outbound events are sent before the transaction commits, a rolled back batch may have sent some of them.
+     */
+    @Transactional
+    public BatchResult processIdempotentBatch(List<DemoInboundEventRecord> records) {
+        final Map<DemoInboundEventRecord, CompletableFuture<SendResult<String, String>>> sendResults = new LinkedHashMap<>();
+        final List<UUID> processedEventIds = new ArrayList<>();
+        final List<UUID> failedEventIds = new ArrayList<>();
+        final List<DemoInboundEventRecord> newRecords = deduplicate(records);
+        for (DemoInboundEventRecord record : newRecords) {
+            try {
+                callThirdparty(record.getKey());
+                sendResults.put(record, kafkaClient.sendMessageAsync(record.getKey(), record.getEvent().getData(), record.getTimestamps()));
+            } catch (KafkaDemoException e) {
+                log.error("Error processing event with Id: " + record.getEventId() + " - " + e.getMessage());
+                failedEventIds.add(record.getEventId());
+            }
+        }
+        // The outbound events are only awaited once all have been sent, so that the producer can batch them.
+        processingMetrics.time(Stage.KAFKA_SEND, () -> {
+            sendResults.forEach((record, sendResult) -> {
+                try {
+                    kafkaClient.await(sendResult);
+                    processedEventIds.add(record.getEventId());
+                    processingMetrics.recordEndToEnd(Path.IDEMPOTENT, record.getTimestamps().getOrigin());
+                } catch (KafkaDemoException e) {
+                    log.error("Error processing event with Id: " + record.getEventId() + " - " + e.getMessage());
+                    failedEventIds.add(record.getEventId());
+                }
+            });
+        });
+        removeProcessedEvents(failedEventIds);
+        processedEventCache.addAfterCommit(processedEventIds);
+        return batchResult(records, newRecords, processedEventIds, failedEventIds);
+    }
+
+    /**
+     * As processIdempotentBatch, with the outbox events for the batch written in one batched insert.
+     */
+    @Transactional
+    public BatchResult processIdempotentAndOutboxBatch(List<DemoInboundEventRecord> records) {
+        final List<OutboxEvent> outboxEvents = new ArrayList<>();
+        final List<UUID> processedEventIds = new ArrayList<>();
+        final List<UUID> failedEventIds = new ArrayList<>();
+        final List<DemoInboundEventRecord> newRecords = deduplicate(records);
+        for (DemoInboundEventRecord record : newRecords) {
+            try {
+                callThirdparty(record.getKey());
+                outboxEvents.add(buildOutboxEvent(record.getEvent().getData(), record.getTimestamps()));
+                processedEventIds.add(record.getEventId());
+            } catch (KafkaDemoException e) {
+                log.error("Error processing event with Id: " + record.getEventId() + " - " + e.getMessage());
+                failedEventIds.add(record.getEventId());
+            }
+        }
+        writeOutboxEvents(outboxEvents);
+        removeProcessedEvents(failedEventIds);
+        processedEventCache.addAfterCommit(processedEventIds);
+        return batchResult(records, newRecords, processedEventIds, failedEventIds);
+    }
+
+    private static BatchResult batchResult(List<DemoInboundEventRecord> records, List<DemoInboundEventRecord> newRecords,
+                                           List<UUID> processedEventIds, List<UUID> failedEventIds) {
+        return BatchResult.builder()
+                .processed(processedEventIds.size())
+                .duplicates(records.size() - newRecords.size())
+                .failed(failedEventIds.size())
+                .build();
+    }
+
+    /**
+     * @return true if the event has not already been processed.
+     */
+    private boolean deduplicate(UUID eventId, EventSource source) {
+        if (processingMetrics.time(Stage.DEDUPLICATE, () -> processedEventCache.isProcessed(eventId, source)
+                || !processedEventRepository.saveIfAbsent(eventId, source))) {
             log.warn("Event already processed: {}", eventId);
-            throw new DuplicateEventException(eventId);
+            return false;
         }
+        log.debug("Event persisted with Id: {}", eventId);
+        // Only cached if the transaction commits, so a rolled back event is not rejected on redelivery.
+        processedEventCache.addAfterCommit(eventId);
+        return true;
     }
 
+    /**
+     * @return the records that have not already been processed, in their original order.
+     */
+    private List<DemoInboundEventRecord> deduplicate(List<DemoInboundEventRecord> records) {
+        final Map<UUID, DemoInboundEventRecord> uniqueRecords = new LinkedHashMap<>();
+        records.forEach(record -> {
+            if (processedEventCache.isProcessed(record.getEventId(), record.getSource())) {
+                log.warn("Event already processed: {}", record.getEventId());
+            } else if (uniqueRecords.putIfAbsent(record.getEventId(), record) != null) {
+                log.warn("Event duplicated within batch: {}", record.getEventId());
+            }
+        });
+        if (uniqueRecords.isEmpty()) {
+            return List.of();
+        }
+        final Map<UUID, EventSource> eventIds = new LinkedHashMap<>();
+        uniqueRecords.forEach((eventId, record) -> eventIds.put(eventId, record.getSource()));
+        final Set<UUID> duplicates = processingMetrics.time(Stage.DEDUPLICATE, () -> processedEventRepository.saveAllIfAbsent(eventIds));
+        duplicates.forEach(eventId -> log.warn("Event already processed: {}", eventId));
+        log.debug("Events persisted: {}", uniqueRecords.size() - duplicates.size());
+        return uniqueRecords.values().stream()
+                .filter(record -> !duplicates.contains(record.getEventId()))
+                .toList();
+    }
+
+    /**
+     * @return the Id of the lease claiming the event, or null if the event has already been processed.
+     * @throws KafkaDemoRetryableException if the event is claimed by another consumer, so that it is retried until that
+     * consumer completes the event, or its lease expires.
+     */
+    private UUID claim(UUID eventId, EventSource source) {
+        if (processedEventCache.isProcessed(eventId, source)) {
+            log.warn("Event already processed: {}", eventId);
+            return null;
+        }
+        final UUID leaseId = UUID.randomUUID();
+        final Instant leaseExpiresAt = Instant.now().plus(properties.getProcessedEventLease().getDuration());
+        final Claim claim = processingMetrics.time(Stage.DEDUPLICATE, () -> new TransactionTemplate(transactionManager)
+                .execute(status -> processedEventRepository.claim(eventId, source, leaseId, leaseExpiresAt)));
+        switch (claim) {
+            case CLAIMED:
+                log.debug("Event claimed with Id: {}", eventId);
+                return leaseId;
+            case COMPLETE:
+                log.warn("Event already processed: {}", eventId);
+                return null;
+            default:
+                throw new KafkaDemoRetryableException("Event claimed by another consumer: " + eventId);
+        }
+    }
+
+    /**
+     * Completes the claimed event, and does the work, in one transaction.  The work is not done if the claim was lost.
+     *
+     * @return false if the claim was lost.
+     */
+    private boolean complete(UUID eventId, UUID leaseId, Runnable work) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            if (!processedEventRepository.complete(eventId, leaseId)) {
+                return false;
+            }
+            work.run();
+            processedEventCache.addAfterCommit(eventId);
+            return true;
+        });
+    }
+
+    /**
+     * Should the release fail, the event is instead reclaimed once its lease expires.
+     */
+    private void release(UUID eventId, UUID leaseId) {
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> processedEventRepository.release(eventId, leaseId));
+        } catch (DataAccessException e) {
+            log.error("Error releasing claim on event with Id: " + eventId + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Completes the event once its Kafka transaction has committed, in a new database transaction.  Should that fail, the
+     * event is left pending until its lease expires, after which a duplicate would be processed again.
+     */
+    private void completeAfterCommit(UUID eventId, UUID leaseId) {
+        try {
+            if (!complete(eventId, leaseId, () -> {})) {
+                log.warn("Event claim expired before completion, so its outbound event may be sent again: {}", eventId);
+            }
+        } catch (DataAccessException e) {
+            log.error("Error completing claim on event with Id: " + eventId + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the processed event records for events that failed, so that they are not treated as duplicates if redelivered.
+     */
+    private void removeProcessedEvents(List<UUID> eventIds) {
+        if (!eventIds.isEmpty()) {
+            processedEventRepository.deleteAllByIdInBatch(eventIds);
+        }
+    }
+
+    /**
+     * Concurrent calls for the same key are coalesced, and successful responses reused, when the response cache is enabled.
+     */
     private void callThirdparty(String key) {
-        RestTemplate restTemplate = new RestTemplate();
+        processingMetrics.time(Stage.THIRDPARTY_CALL, () -> thirdpartyResponseCache.get(key, () -> fetchThirdparty(key)));
+    }
+
+    private ResponseEntity<String> fetchThirdparty(String key) {
         try {
             ResponseEntity<String> response = restTemplate.getForEntity(properties.getThirdpartyEndpoint() + "/" + key, String.class);
             if (response.getStatusCodeValue() != 200) {
                 throw new RuntimeException("error " + response.getStatusCodeValue());
             }
-            return;
+            return response;
         } catch (HttpServerErrorException e) {
             log.error("Error calling thirdparty api, returned an (" + e.getClass().getName() + ") with an error code of " + e.getRawStatusCode(), e);   // e.getRawStatusCode()
             throw new KafkaDemoRetryableException(e);
@@ -90,14 +428,47 @@ public class DemoService {;
         }
     }
 
-    private void writeOutboxEvent(String payload) {
-        OutboxEvent outboxEvent = OutboxEvent.builder()
+    private void writeOutboxEvent(String payload, EventTimestamps timestamps) {
+        OutboxEvent outboxEvent = processingMetrics.time(Stage.OUTBOX_WRITE, () -> outboxEventRepository.save(buildOutboxEvent(payload, timestamps)));
+        log.debug("Event persisted to transactional outbox with Id: {}", outboxEvent.getId());
+        outboxRetentionService.deleteOnInsert(List.of(outboxEvent.getId()));
+        recordOutboxLatencyAfterCommit(List.of(outboxEvent));
+    }
+
+    private void writeOutboxEvents(List<OutboxEvent> outboxEvents) {
+        if (!outboxEvents.isEmpty()) {
+            processingMetrics.time(Stage.OUTBOX_WRITE, () -> outboxEventRepository.saveAll(outboxEvents));
+            log.debug("Events persisted to transactional outbox: {}", outboxEvents.size());
+            outboxRetentionService.deleteOnInsert(outboxEvents.stream().map(OutboxEvent::getId).toList());
+            recordOutboxLatencyAfterCommit(outboxEvents);
+        }
+    }
+
+    /**
+     * The outbox events only land, for Debezium or the outbox relay to publish, once the transaction commits.
+     */
+    private void recordOutboxLatencyAfterCommit(List<OutboxEvent> outboxEvents) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            outboxEvents.forEach(outboxEvent -> processingMetrics.recordEndToEnd(Path.OUTBOX, outboxEvent.getOriginTimestamp()));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                outboxEvents.forEach(outboxEvent -> processingMetrics.recordEndToEnd(Path.OUTBOX, outboxEvent.getOriginTimestamp()));
+            }
+        });
+    }
+
+    private OutboxEvent buildOutboxEvent(String payload, EventTimestamps timestamps) {
+        return OutboxEvent.builder()
                 .version("v1")
                 .payload(payload)
                 .destination("demo-outbox-outbound")
                 .timestamp(System.currentTimeMillis())
+                .originTimestamp(timestamps.getOrigin())
+                .inboundTimestamp(timestamps.getInbound())
+                .consumedTimestamp(timestamps.getConsumed())
                 .build();
-        UUID outboxEventId = outboxEventRepository.save(outboxEvent).getId();
-        log.debug("Event persisted to transactional outbox with Id: {}", outboxEventId);
     }
 }
@@ -0,0 +1,236 @@
+package demo.kafka.service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+import demo.kafka.domain.OutboxEvent;
+import demo.kafka.event.EventTimestamps;
+import demo.kafka.exception.KafkaDemoException;
+import demo.kafka.lib.Databases;
+import demo.kafka.lib.VirtualThreads;
+import demo.kafka.properties.KafkaDemoProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.postgresql.PGConnection;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Relays outbox events to Kafka from within the service, as an alternative to Debezium.
+ *
+ * Each batch of outbox events is claimed with FOR UPDATE SKIP LOCKED, so any number of instances can relay in parallel
+ * without claiming the same events.  The whole batch is sent before waiting on any acknowledgement, so the sends are
+ * pipelined by the producer, and the batch is then deleted (or marked as published) in one statement in the same
+ * transaction.  If any send fails the transaction rolls back and the batch is relayed again, so events are published
+ * at least once.  Ordering is only preserved within a batch.
+ *
+ * The index of unpublished outbox events, and the trigger notifying the relay of new ones, are created by the relay as it
+ * starts on Postgres, so that they are not maintained on every outbox insert when Debezium relays the outbox events.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "kafkademo.outboxRelay.enabled", havingValue = "true")
+public class OutboxRelayService implements SmartLifecycle {
+
+    // The header Debezium's outbox event router also places the outbox event Id in.
+    public static final String OUTBOX_ID_HEADER_KEY = "id";
+
+    private static final String NOTIFY_CHANNEL = "outbox_event";
+    private static final String CLAIM_EVENTS = "SELECT id, destination, payload, origin_timestamp, inbound_timestamp, consumed_timestamp "
+            + "FROM outbox_event WHERE published_at IS NULL "
+            + "ORDER BY timestamp LIMIT ? FOR UPDATE SKIP LOCKED";
+    private static final String DELETE_EVENTS = "DELETE FROM outbox_event WHERE id = ANY(?)";
+    private static final String MARK_EVENTS_PUBLISHED = "UPDATE outbox_event SET published_at = now() WHERE id = ANY(?)";
+    // Built without blocking the outbox inserts, so must not run in a transaction.
+    private static final String CREATE_UNPUBLISHED_INDEX = "CREATE INDEX CONCURRENTLY IF NOT EXISTS outbox_event_unpublished_idx "
+            + "ON outbox_event (timestamp) WHERE published_at IS NULL";
+    // Notifications are only delivered on commit, and duplicates within a transaction are collapsed, so a batch of
+    // inserts costs a single notification.
+    private static final String CREATE_NOTIFY_FUNCTION = "CREATE OR REPLACE FUNCTION notify_outbox_event() RETURNS trigger AS $$ "
+            + "BEGIN PERFORM pg_notify('" + NOTIFY_CHANNEL + "', ''); RETURN NULL; END $$ LANGUAGE plpgsql";
+    private static final String CREATE_NOTIFY_TRIGGER = "DO $$ BEGIN "
+            + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'outbox_event_notify' AND tgrelid = 'outbox_event'::regclass) THEN "
+            + "CREATE TRIGGER outbox_event_notify AFTER INSERT ON outbox_event FOR EACH STATEMENT EXECUTE FUNCTION notify_outbox_event(); "
+            + "END IF; END $$";
+
+    private final KafkaDemoProperties properties;
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSource dataSource;
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    private volatile boolean running;
+    private Thread relayThread;
+
+    @Override
+    public void start() {
+        if (Databases.isPostgres(dataSource)) {
+            createSchema();
+        }
+        running = true;
+        relayThread = VirtualThreads.threadFactory(properties.getVirtualThreads().isEnabled(), "outbox-relay-").newThread(this::relay);
+        relayThread.start();
+        log.info("Outbox relay started");
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        relayThread.interrupt();
+        try {
+            relayThread.join(properties.getOutboxRelay().getPollInterval().toMillis() * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Outbox relay stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Another instance may be creating the same objects, in which case its failure to is only logged.
+     */
+    private void createSchema() {
+        try {
+            jdbcTemplate.execute(CREATE_UNPUBLISHED_INDEX);
+            if (properties.getOutboxRelay().isListenNotify()) {
+                jdbcTemplate.execute(CREATE_NOTIFY_FUNCTION);
+                jdbcTemplate.execute(CREATE_NOTIFY_TRIGGER);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Failed to create the outbox relay's index and trigger: " + e.getMessage());
+        }
+    }
+
+    private void relay() {
+        final KafkaDemoProperties.OutboxRelay config = properties.getOutboxRelay();
+        Connection listenConnection = null;
+        while (running) {
+            try {
+                if (config.isListenNotify() && listenConnection == null) {
+                    listenConnection = listen();
+                }
+                // Keep relaying while there is a backlog, and otherwise wait for new events.
+                if (relayBatch() < config.getBatchSize()) {
+                    awaitEvents(listenConnection);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("Error relaying outbox events: " + e.getMessage());
+                listenConnection = close(listenConnection);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(config.getPollInterval().toMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        close(listenConnection);
+    }
+
+    /**
+     * @return the number of outbox events relayed.
+     */
+    int relayBatch() {
+        final KafkaDemoProperties.OutboxRelay config = properties.getOutboxRelay();
+        final Integer relayed = new TransactionTemplate(transactionManager).execute(status -> {
+            final List<OutboxEvent> outboxEvents = jdbcTemplate.query(CLAIM_EVENTS, (rs, rowNum) -> OutboxEvent.builder()
+                    .id(rs.getObject("id", UUID.class))
+                    .destination(rs.getString("destination"))
+                    .payload(rs.getString("payload"))
+                    .originTimestamp(rs.getObject("origin_timestamp", Long.class))
+                    .inboundTimestamp(rs.getObject("inbound_timestamp", Long.class))
+                    .consumedTimestamp(rs.getObject("consumed_timestamp", Long.class))
+                    .build(), config.getBatchSize());
+            if (outboxEvents.isEmpty()) {
+                return 0;
+            }
+            final List<CompletableFuture<SendResult<String, String>>> results = new ArrayList<>(outboxEvents.size());
+            outboxEvents.forEach(outboxEvent -> results.add(send(outboxEvent)));
+            for (CompletableFuture<SendResult<String, String>> result : results) {
+                try {
+                    result.get(config.getSendTimeout().toMillis(), TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    throw new KafkaDemoException(e);
+                }
+            }
+            final UUID[] outboxEventIds = outboxEvents.stream().map(OutboxEvent::getId).toArray(UUID[]::new);
+            jdbcTemplate.update(config.isDeleteAfterPublish() ? DELETE_EVENTS : MARK_EVENTS_PUBLISHED,
+                    ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", outboxEventIds)));
+            log.debug("Relayed outbox events: {}", outboxEvents.size());
+            return outboxEvents.size();
+        });
+        return relayed != null ? relayed : 0;
+    }
+
+    private CompletableFuture<SendResult<String, String>> send(OutboxEvent outboxEvent) {
+        final ProducerRecord<String, String> record = new ProducerRecord<>(outboxEvent.getDestination(), outboxEvent.getPayload());
+        record.headers().add(OUTBOX_ID_HEADER_KEY, outboxEvent.getId().toString().getBytes(StandardCharsets.UTF_8));
+        // Outbox events written before the timestamps were recorded have none.
+        if (outboxEvent.getOriginTimestamp() != null) {
+            new EventTimestamps(outboxEvent.getOriginTimestamp(), outboxEvent.getInboundTimestamp(), outboxEvent.getConsumedTimestamp())
+                    .addTo(record.headers());
+        }
+        return kafkaTemplate.send(record);
+    }
+
+    /**
+     * Holds a connection of its own on which to receive notifications of new outbox events.
+     */
+    private Connection listen() throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("LISTEN " + NOTIFY_CHANNEL);
+        } catch (SQLException e) {
+            close(connection);
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Waits until new outbox events are notified, or at most the poll interval.
+     */
+    private void awaitEvents(Connection listenConnection) throws SQLException, InterruptedException {
+        final long pollIntervalMs = properties.getOutboxRelay().getPollInterval().toMillis();
+        if (listenConnection != null) {
+            listenConnection.unwrap(PGConnection.class).getNotifications((int) pollIntervalMs);
+        } else {
+            TimeUnit.MILLISECONDS.sleep(pollIntervalMs);
+        }
+    }
+
+    private Connection close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Error closing outbox relay listen connection: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+}
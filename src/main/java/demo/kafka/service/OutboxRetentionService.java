@@ -0,0 +1,170 @@
+package demo.kafka.service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import demo.kafka.lib.Databases;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.properties.KafkaDemoProperties.OutboxRetentionMode;
+import demo.kafka.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the outbox_event table, and so the cost of inserting into it and of vacuuming it, from growing without bound,
+ * as Debezium captures the outbox events from the WAL and never deletes them.
+ *
+ * Either each outbox event is deleted in the same transaction that inserts it, so that the table stays empty, or the
+ * outbox events are purged once older than the min age, at most one batch each purge interval.  Each batch is deleted
+ * in its own short transaction, oldest first, selected by a range scan of the index on the outbox event's timestamp, or
+ * with the outbox relay, on when it was published.  The Ids are not relied on, as those written before they were time
+ * ordered would compare arbitrarily.
+ *
+ * The size of the table, and the backlog of outbox events in it, are also published, whether the outbox events are
+ * relayed by Debezium or the outbox relay.
+ */
+@Slf4j
+@Service
+public class OutboxRetentionService {
+
+    public static final String PURGED = "outbox.purged";
+    public static final String TABLE_SIZE = "outbox.table.size";
+    public static final String BACKLOG = "outbox.backlog";
+
+    // The backlog is counted at most once each interval, however often it is scraped.
+    private static final Duration BACKLOG_REFRESH_INTERVAL = Duration.ofSeconds(15);
+
+    private static final String PURGE_EVENTS = "DELETE FROM outbox_event WHERE id IN ("
+            + "SELECT id FROM outbox_event WHERE timestamp < ? ORDER BY timestamp LIMIT ?)";
+    private static final String PURGE_PUBLISHED_EVENTS = "DELETE FROM outbox_event WHERE id IN ("
+            + "SELECT id FROM outbox_event WHERE published_at < ? ORDER BY published_at LIMIT ?)";
+    // Includes the index and the dead rows not yet vacuumed.  Only supported on Postgres, so the gauge is only registered there.
+    private static final String TABLE_SIZE_BYTES = "SELECT pg_total_relation_size('outbox_event')";
+    // The estimate maintained by autovacuum and analyze, so reading it costs no scan of the table.  It only counts the
+    // backlog while each outbox event is deleted once published.
+    private static final String ESTIMATE_EVENTS = "SELECT n_live_tup FROM pg_stat_user_tables WHERE relid = 'outbox_event'::regclass";
+    // With Debezium published_at is never set, so every outbox event is counted.
+    private static final String COUNT_UNPUBLISHED_EVENTS = "SELECT count(*) FROM outbox_event WHERE published_at IS NULL";
+
+    private final KafkaDemoProperties properties;
+    private final KafkaDemoProperties.OutboxRetention config;
+    private final OutboxEventRepository outboxEventRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final Counter purged;
+    private final String backlogQuery;
+    private volatile double backlog = Double.NaN;
+    private volatile long backlogRefreshedAt;
+
+    public OutboxRetentionService(final KafkaDemoProperties properties,
+                                  final OutboxEventRepository outboxEventRepository,
+                                  final JdbcTemplate jdbcTemplate,
+                                  final MeterRegistry meterRegistry) {
+        // The outbox relay only relays the outbox events still in the table once the transaction commits.
+        if (properties.getOutboxRetention().getMode() == OutboxRetentionMode.DELETE_ON_INSERT && properties.getOutboxRelay().isEnabled()) {
+            throw new IllegalStateException("outboxRetention.mode deleteOnInsert relies on Debezium capturing the insert, so is not supported with the outbox relay");
+        }
+        this.properties = properties;
+        this.config = properties.getOutboxRetention();
+        this.outboxEventRepository = outboxEventRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.purged = Counter.builder(PURGED)
+                .description("The outbox events purged")
+                .tag("mode", config.getMode().name().toLowerCase())
+                .register(meterRegistry);
+        final boolean postgres = Databases.isPostgres(jdbcTemplate.getDataSource());
+        if (postgres) {
+            Gauge.builder(TABLE_SIZE, jdbcTemplate, this::tableSizeBytes)
+                    .description("The size of the outbox_event table, including its index")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+        // Outbox events marked as published by the outbox relay stay in the table until purged, so are counted.
+        final boolean deletedOnceRelayed = !properties.getOutboxRelay().isEnabled() || properties.getOutboxRelay().isDeleteAfterPublish();
+        this.backlogQuery = postgres && deletedOnceRelayed ? ESTIMATE_EVENTS : COUNT_UNPUBLISHED_EVENTS;
+        Gauge.builder(BACKLOG, this, OutboxRetentionService::backlog)
+                .description("The outbox events waiting to be relayed, or with Debezium, to be purged")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Deletes the outbox events just written in the current transaction, once flushed, so that their inserts are still
+     * captured by Debezium.
+     */
+    public void deleteOnInsert(final List<UUID> outboxEventIds) {
+        if (config.getMode() == OutboxRetentionMode.DELETE_ON_INSERT && !outboxEventIds.isEmpty()) {
+            outboxEventRepository.flush();
+            outboxEventRepository.deleteAllByIdInBatch(outboxEventIds);
+            purged.increment(outboxEventIds.size());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${kafkademo.outboxRetention.purgeInterval}")
+    public void purge() {
+        if (config.getMode() == OutboxRetentionMode.PURGE) {
+            try {
+                purgeBatch();
+            } catch (DataAccessException e) {
+                log.warn("Failed to purge outbox events: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * With the outbox relay, only the outbox events marked as published are purged.
+     *
+     * @return the number of outbox events purged.
+     */
+    public int purgeBatch() {
+        final long cutoff = System.currentTimeMillis() - config.getMinAge().toMillis();
+        final int deleted = properties.getOutboxRelay().isEnabled()
+                ? jdbcTemplate.update(PURGE_PUBLISHED_EVENTS, new Timestamp(cutoff), config.getBatchSize())
+                : jdbcTemplate.update(PURGE_EVENTS, cutoff, config.getBatchSize());
+        if (deleted > 0) {
+            purged.increment(deleted);
+            log.debug("Purged outbox events: {}", deleted);
+        }
+        return deleted;
+    }
+
+    /**
+     * The last count of the backlog, counted again once older than the refresh interval.
+     */
+    double backlog() {
+        final long now = System.currentTimeMillis();
+        if (now - backlogRefreshedAt >= BACKLOG_REFRESH_INTERVAL.toMillis()) {
+            synchronized (this) {
+                if (now - backlogRefreshedAt >= BACKLOG_REFRESH_INTERVAL.toMillis()) {
+                    backlog = countBacklog();
+                    backlogRefreshedAt = now;
+                }
+            }
+        }
+        return backlog;
+    }
+
+    private double countBacklog() {
+        try {
+            final Long count = jdbcTemplate.queryForObject(backlogQuery, Long.class);
+            return count != null ? count : Double.NaN;
+        } catch (DataAccessException e) {
+            return Double.NaN;
+        }
+    }
+
+    private double tableSizeBytes(final JdbcTemplate jdbcTemplate) {
+        try {
+            final Long bytes = jdbcTemplate.queryForObject(TABLE_SIZE_BYTES, Long.class);
+            return bytes != null ? bytes : Double.NaN;
+        } catch (DataAccessException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package demo.kafka.service;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import demo.kafka.lib.Databases;
+import demo.kafka.properties.KafkaDemoProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Creates the daily partitions of the processed_event table ahead of the current day.  There is no default partition,
+ * so an event processed on a day without a partition fails to insert.  The partitions are therefore created whether or
+ * not the processed event retention is enabled, and a failure to create one is logged as an error.
+ *
+ * The table is only partitioned on Postgres, so elsewhere nothing is created.  Every instance runs this, so each
+ * statement tolerates another instance having got there first.
+ */
+@Slf4j
+@Service
+public class ProcessedEventPartitionService {
+
+    static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    static final String PARTITION_PREFIX = "processed_event_p";
+
+    private final KafkaDemoProperties properties;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean partitioned;
+
+    public ProcessedEventPartitionService(final KafkaDemoProperties properties, final JdbcTemplate jdbcTemplate) {
+        this.properties = properties;
+        this.jdbcTemplate = jdbcTemplate;
+        this.partitioned = Databases.isPostgres(jdbcTemplate.getDataSource());
+    }
+
+    /**
+     * Runs as the service starts, so that partitions are created before the first insert after a long stop.
+     */
+    @Scheduled(fixedDelayString = "#{@kafkaDemoProperties.processedEventRetention.checkInterval.toMillis()}")
+    public void createPartitions() {
+        if (partitioned) {
+            final LocalDate today = LocalDate.now(ZoneOffset.UTC);
+            for (int i = 0; i <= properties.getProcessedEventRetention().getPartitionsAhead(); i++) {
+                createPartition(today.plusDays(i));
+            }
+        }
+    }
+
+    private void createPartition(LocalDate day) {
+        final String partition = PARTITION_PREFIX + PARTITION_SUFFIX.format(day);
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF processed_event "
+                    + "FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+        } catch (DataAccessException e) {
+            log.error("Failed to create partition {}: {}", partition, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package demo.kafka.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Drops the daily partitions of the processed_event table holding only event Ids older than the dedup window.  Dropping a whole partition keeps the size of the
+ * table, and so the cost of deduplication, flat regardless of how long the service has been running.
+ *
+ * An old partition is detached concurrently before it is dropped, so that inserts into the other partitions are not
+ * blocked behind the exclusive lock a drop takes on the whole table.  A detach interrupted part way through is finalized
+ * on the next run, and a partition detached but not dropped is dropped on the next run.
+ *
+ * The partitions are created ahead of the current day by ProcessedEventPartitionService, which runs whether or not the
+ * retention is enabled.
+ *
+ * Every instance runs this, so each statement tolerates another instance having got there first.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "kafkademo.processedEventRetention.enabled", havingValue = "true")
+public class ProcessedEventRetentionService {
+
+    private static final Pattern PARTITION_NAME = Pattern.compile(ProcessedEventPartitionService.PARTITION_PREFIX + "(\\d{8})");
+
+    // Includes the partitions already detached, which are no longer inherited from the table.
+    private static final String LIST_PARTITIONS = "SELECT child.relname, pg_inherits.inhdetachpending FROM pg_class child "
+            + "LEFT JOIN pg_inherits ON pg_inherits.inhrelid = child.oid AND pg_inherits.inhparent = 'processed_event'::regclass "
+            + "WHERE child.relkind = 'r' AND child.relnamespace = (SELECT relnamespace FROM pg_class WHERE oid = 'processed_event'::regclass)";
+
+    private final KafkaDemoProperties properties;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Scheduled(fixedDelayString = "#{@kafkaDemoProperties.processedEventRetention.checkInterval.toMillis()}")
+    public void dropPartitions() {
+        final Instant cutoff = Instant.now().minus(properties.getProcessedEventRetention().getDedupWindow());
+        for (Map<String, Object> partition : listPartitions()) {
+            final String name = (String) partition.get("relname");
+            final Matcher matcher = PARTITION_NAME.matcher(name);
+            if (matcher.matches()) {
+                final LocalDate day = LocalDate.parse(matcher.group(1), ProcessedEventPartitionService.PARTITION_SUFFIX);
+                if (!day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().isAfter(cutoff)) {
+                    dropPartition(name, (Boolean) partition.get("inhdetachpending"));
+                }
+            }
+        }
+    }
+
+    private List<Map<String, Object>> listPartitions() {
+        return jdbcTemplate.queryForList(LIST_PARTITIONS);
+    }
+
+    /**
+     * @param detachPending null if the partition has already been detached.
+     */
+    private void dropPartition(String partition, Boolean detachPending) {
+        try {
+            if (detachPending != null) {
+                // Run outside of a transaction, as a concurrent detach must be.
+                jdbcTemplate.execute("ALTER TABLE processed_event DETACH PARTITION " + partition + (detachPending ? " FINALIZE" : " CONCURRENTLY"));
+            }
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition);
+            log.info("Dropped processed event partition older than the dedup window: {}", partition);
+        } catch (DataAccessException e) {
+            log.warn("Failed to drop partition {}: {}", partition, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,7 @@
+-- Records the partition and offset each event was consumed from, so that the Ids of the events most recently processed
+-- from a partition can be loaded when it is assigned.
+ALTER TABLE kafka_demo_idempotent_consumer.processed_event ADD COLUMN source_topic varchar(255) NULL;
+ALTER TABLE kafka_demo_idempotent_consumer.processed_event ADD COLUMN source_partition int NULL;
+ALTER TABLE kafka_demo_idempotent_consumer.processed_event ADD COLUMN source_offset bigint NULL;
+
+CREATE INDEX processed_event_source_idx ON kafka_demo_idempotent_consumer.processed_event (source_topic, source_partition, source_offset);
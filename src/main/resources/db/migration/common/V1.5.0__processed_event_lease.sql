@@ -0,0 +1,5 @@
+-- Supports claiming an event with a lease in one transaction, before the thirdparty call, and completing it in a second.
+-- An event processed in a single transaction is inserted as complete.
+ALTER TABLE kafka_demo_idempotent_consumer.processed_event ADD COLUMN status varchar(16) DEFAULT 'COMPLETE' NOT NULL;
+ALTER TABLE kafka_demo_idempotent_consumer.processed_event ADD COLUMN lease_id uuid NULL;
+ALTER TABLE kafka_demo_idempotent_consumer.processed_event ADD COLUMN lease_expires_at timestamp with time zone NULL;
@@ -0,0 +1,4 @@
+-- The timestamps of the inbound event, carried on as headers of the outbound event to measure end to end latency.
+ALTER TABLE kafka_demo_idempotent_consumer.outbox_event ADD COLUMN origin_timestamp int8 NULL;
+ALTER TABLE kafka_demo_idempotent_consumer.outbox_event ADD COLUMN inbound_timestamp int8 NULL;
+ALTER TABLE kafka_demo_idempotent_consumer.outbox_event ADD COLUMN consumed_timestamp int8 NULL;
@@ -0,0 +1,3 @@
+-- H2 is used as a local stand-in for Postgres and does not support partitioning, so only the columns are added.
+ALTER TABLE kafka_demo_idempotent_consumer.processed_event ADD COLUMN processed_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP NOT NULL;
+ALTER TABLE kafka_demo_idempotent_consumer.processed_event ADD COLUMN processed_date DATE DEFAULT CURRENT_DATE NOT NULL;
@@ -0,0 +1 @@
+ALTER TABLE kafka_demo_idempotent_consumer.outbox_event ADD COLUMN published_at TIMESTAMP WITH TIME ZONE NULL;
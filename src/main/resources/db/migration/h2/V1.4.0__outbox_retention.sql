@@ -0,0 +1,3 @@
+-- H2 is used as a local stand-in for Postgres and has no autovacuum to tune, so only the purge's indexes are created.
+CREATE INDEX outbox_event_timestamp_idx ON kafka_demo_idempotent_consumer.outbox_event (timestamp);
+CREATE INDEX outbox_event_published_at_idx ON kafka_demo_idempotent_consumer.outbox_event (published_at);
@@ -0,0 +1,31 @@
+-- Partitions processed_event by the (UTC) day the event was processed, so that event Ids older than the dedup window
+-- can be dropped a partition at a time.  The primary key must include the partition key, so uniqueness of an event Id
+-- is enforced within a day by the key, and across days by the insert checking the earlier partitions.
+ALTER TABLE kafka_demo_idempotent_consumer.processed_event RENAME TO processed_event_unpartitioned;
+ALTER TABLE kafka_demo_idempotent_consumer.processed_event_unpartitioned RENAME CONSTRAINT processed_event_ids_pkey TO processed_event_unpartitioned_pkey;
+
+CREATE TABLE kafka_demo_idempotent_consumer.processed_event (
+    eventid uuid NOT NULL,
+    processed_at timestamptz NOT NULL DEFAULT now(),
+    processed_date date NOT NULL DEFAULT (now() AT TIME ZONE 'UTC')::date,
+    CONSTRAINT processed_event_pkey PRIMARY KEY (eventid, processed_date)
+) PARTITION BY RANGE (processed_date);
+
+-- There is no default partition, as once it held a row for a day, that day's partition could no longer be created, and
+-- it would prevent partitions being detached concurrently.  The partitions are instead created ahead of the current
+-- day, here and then by the service.
+DO $$
+DECLARE
+    day date;
+BEGIN
+    FOR i IN 0..3 LOOP
+        day := (now() AT TIME ZONE 'UTC')::date + i;
+        EXECUTE format('CREATE TABLE kafka_demo_idempotent_consumer.%I PARTITION OF kafka_demo_idempotent_consumer.processed_event FOR VALUES FROM (%L) TO (%L)',
+                       'processed_event_p' || to_char(day, 'YYYYMMDD'), day, day + 1);
+    END LOOP;
+END $$;
+
+INSERT INTO kafka_demo_idempotent_consumer.processed_event (eventid)
+SELECT eventid FROM kafka_demo_idempotent_consumer.processed_event_unpartitioned;
+
+DROP TABLE kafka_demo_idempotent_consumer.processed_event_unpartitioned;
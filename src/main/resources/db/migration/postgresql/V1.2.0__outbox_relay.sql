@@ -0,0 +1,4 @@
+-- Supports relaying outbox events from within the service, as an alternative to Debezium.  The partial index of
+-- unpublished outbox events and the notify trigger are created by the relay as it starts, so that neither is maintained
+-- on every outbox insert when Debezium relays the outbox events.
+ALTER TABLE kafka_demo_idempotent_consumer.outbox_event ADD COLUMN published_at timestamptz NULL;
@@ -0,0 +1,8 @@
+-- Outbox events are deleted continually, whether on insert or by the purge, so vacuum the table once 1% of its rows are
+-- dead rather than the default 20%, keeping it and its index from bloating between vacuums.
+ALTER TABLE kafka_demo_idempotent_consumer.outbox_event SET (autovacuum_vacuum_scale_factor = 0.01, autovacuum_vacuum_threshold = 1000);
+
+-- The purge finds the oldest outbox events by their timestamp, or with the outbox relay by when they were published, as
+-- the Ids written before they were time ordered cannot be range scanned.  Only published events are purged by the latter.
+CREATE INDEX outbox_event_timestamp_idx ON kafka_demo_idempotent_consumer.outbox_event (timestamp);
+CREATE INDEX outbox_event_published_at_idx ON kafka_demo_idempotent_consumer.outbox_event (published_at) WHERE published_at IS NOT NULL;
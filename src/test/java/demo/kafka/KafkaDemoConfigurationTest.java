@@ -0,0 +1,36 @@
+package demo.kafka;
+
+import demo.kafka.consumer.AssignedPartitionsCacheLoader;
+import demo.kafka.consumer.DuplicateEventInterceptor;
+import demo.kafka.consumer.FlowController;
+import demo.kafka.properties.KafkaDemoProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties.AckMode;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KafkaDemoConfigurationTest {
+
+    /**
+     * The batch listeners only acknowledge manually with flow control, when they may negatively acknowledge the tail of a
+     * batch.
+     */
+    @Test
+    public void testBatchAckMode() {
+        FlowController flowController = mock(FlowController.class);
+
+        assertThat(batchAckMode(flowController), equalTo(AckMode.BATCH));
+        when(flowController.isEnabled()).thenReturn(true);
+        assertThat(batchAckMode(flowController), equalTo(AckMode.MANUAL));
+    }
+
+    private static AckMode batchAckMode(FlowController flowController) {
+        return new KafkaDemoConfiguration().kafkaBatchListenerContainerFactory(mock(ConsumerFactory.class), new KafkaDemoProperties(),
+                flowController, mock(DuplicateEventInterceptor.class), mock(AssignedPartitionsCacheLoader.class)).getContainerProperties().getAckMode();
+    }
+}
@@ -0,0 +1,55 @@
+package demo.kafka.cache;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class BoundedUuidSetTest {
+
+    @Test
+    public void testAddAndContains() {
+        BoundedUuidSet set = new BoundedUuidSet(1024);
+        UUID eventId = UUID.randomUUID();
+
+        assertThat(set.contains(eventId.getMostSignificantBits(), eventId.getLeastSignificantBits()), equalTo(false));
+        assertThat(set.add(eventId.getMostSignificantBits(), eventId.getLeastSignificantBits()), equalTo(true));
+        assertThat(set.add(eventId.getMostSignificantBits(), eventId.getLeastSignificantBits()), equalTo(false));
+        assertThat(set.contains(eventId.getMostSignificantBits(), eventId.getLeastSignificantBits()), equalTo(true));
+        assertThat(set.size(), equalTo(1L));
+    }
+
+    @Test
+    public void testCapacityIsRoundedToAPowerOfTwo() {
+        assertThat(new BoundedUuidSet(1000).capacity(), equalTo(512));
+        assertThat(new BoundedUuidSet(0).capacity(), equalTo(BoundedUuidSet.SLOTS_PER_BUCKET));
+    }
+
+    /**
+     * With a single bucket, each insert beyond its capacity evicts the oldest entry.
+     */
+    @Test
+    public void testEvictsOldestWhenFull() {
+        BoundedUuidSet set = new BoundedUuidSet(BoundedUuidSet.SLOTS_PER_BUCKET);
+        for (long i = 1; i <= BoundedUuidSet.SLOTS_PER_BUCKET + 2; i++) {
+            set.add(i, i);
+        }
+
+        assertThat(set.evictionCount(), equalTo(2L));
+        assertThat(set.size(), equalTo((long) BoundedUuidSet.SLOTS_PER_BUCKET));
+        assertThat(set.contains(1, 1), equalTo(false));
+        assertThat(set.contains(2, 2), equalTo(false));
+        assertThat(set.contains(3, 3), equalTo(true));
+        assertThat(set.contains(BoundedUuidSet.SLOTS_PER_BUCKET + 2, BoundedUuidSet.SLOTS_PER_BUCKET + 2), equalTo(true));
+    }
+
+    @Test
+    public void testNilUuidIsNotHeld() {
+        BoundedUuidSet set = new BoundedUuidSet(1024);
+
+        assertThat(set.add(0, 0), equalTo(false));
+        assertThat(set.contains(0, 0), equalTo(false));
+    }
+}
@@ -0,0 +1,112 @@
+package demo.kafka.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class ThirdpartyResponseCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private ThirdpartyResponseCache cache;
+    private AtomicInteger calls;
+
+    @BeforeEach
+    public void setUp() {
+        KafkaDemoProperties properties = new KafkaDemoProperties();
+        properties.getThirdpartyResponseCache().setEnabled(true);
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new ThirdpartyResponseCache(properties, meterRegistry);
+        calls = new AtomicInteger();
+    }
+
+    @Test
+    public void testSuccessfulResponseIsCached() {
+        cache.get("key", this::success);
+        cache.get("key", this::success);
+        cache.get("other-key", this::success);
+
+        assertThat(calls.get(), equalTo(2));
+        assertThat(meterRegistry.get("cache.gets").tags("cache", "thirdpartyResponse", "result", "hit").functionCounter().count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testFailureIsNotCached() {
+        assertThrows(KafkaDemoRetryableException.class, () -> cache.get("key", () -> {
+            calls.incrementAndGet();
+            throw new KafkaDemoRetryableException(new RuntimeException("unavailable"));
+        }));
+        cache.get("key", this::success);
+
+        assertThat(calls.get(), equalTo(2));
+    }
+
+    /**
+     * A call failing with an Error is removed from the cache too, rather than left in flight for later calls to wait on.
+     */
+    @Test
+    public void testErrorIsNotCached() {
+        assertThrows(StackOverflowError.class, () -> cache.get("key", () -> {
+            calls.incrementAndGet();
+            throw new StackOverflowError();
+        }));
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> cache.get("key", this::success));
+
+        assertThat(calls.get(), equalTo(2));
+    }
+
+    /**
+     * Concurrent calls for the same key wait on the one in-flight call.
+     */
+    @Test
+    public void testConcurrentCallsAreCoalesced() throws Exception {
+        CountDownLatch inFlight = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<ResponseEntity<String>> first = CompletableFuture.supplyAsync(() -> cache.get("key", () -> {
+            inFlight.countDown();
+            await(release);
+            return success();
+        }));
+        inFlight.await(5, TimeUnit.SECONDS);
+
+        List<CompletableFuture<ResponseEntity<String>>> others = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            others.add(CompletableFuture.supplyAsync(() -> cache.get("key", this::success)));
+        }
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getBody(), equalTo("Success"));
+        for (CompletableFuture<ResponseEntity<String>> other : others) {
+            assertThat(other.get(5, TimeUnit.SECONDS).getBody(), equalTo("Success"));
+        }
+        assertThat(calls.get(), equalTo(1));
+    }
+
+    private ResponseEntity<String> success() {
+        calls.incrementAndGet();
+        return ResponseEntity.ok("Success");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package demo.kafka.consumer;
+
+import java.util.List;
+import java.util.UUID;
+
+import demo.kafka.cache.ProcessedEventCache;
+import demo.kafka.event.EventSource;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.repository.ProcessedEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AssignedPartitionsCacheLoaderTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("topic", 1);
+    private static final EventSource SOURCE = new EventSource("topic", 1, 100);
+
+    private ProcessedEventRepository processedEventRepository;
+    private ProcessedEventCache processedEventCache;
+    private AssignedPartitionsCacheLoader cacheLoader;
+
+    @BeforeEach
+    public void setUp() {
+        KafkaDemoProperties properties = new KafkaDemoProperties();
+        properties.getProcessedEventCache().setEnabled(true);
+        properties.getProcessedEventCache().setEventsPerAssignedPartition(10);
+        processedEventRepository = mock(ProcessedEventRepository.class);
+        processedEventCache = new ProcessedEventCache(properties, new SimpleMeterRegistry());
+        cacheLoader = new AssignedPartitionsCacheLoader(properties, processedEventCache, processedEventRepository);
+    }
+
+    @Test
+    public void testAssignedPartitionLoadedAndRevokedPartitionDropped() {
+        UUID eventId = UUID.randomUUID();
+        when(processedEventRepository.findRecentEventIds("topic", 1, 10)).thenReturn(List.of(eventId));
+
+        cacheLoader.onPartitionsAssigned(null, List.of(PARTITION));
+        assertThat(processedEventCache.isProcessed(eventId, SOURCE), equalTo(true));
+        // Only held against the partition the event was processed from.
+        assertThat(processedEventCache.isProcessed(eventId, new EventSource("topic", 2, 100)), equalTo(false));
+
+        cacheLoader.onPartitionsRevokedAfterCommit(null, List.of(PARTITION));
+        assertThat(processedEventCache.isProcessed(eventId, SOURCE), equalTo(false));
+    }
+
+    @Test
+    public void testFailedLoadIsIgnored() {
+        when(processedEventRepository.findRecentEventIds("topic", 1, 10)).thenThrow(new QueryTimeoutException("timeout"));
+
+        cacheLoader.onPartitionsAssigned(null, List.of(PARTITION));
+
+        assertThat(processedEventCache.isProcessed(UUID.randomUUID(), SOURCE), equalTo(false));
+    }
+}
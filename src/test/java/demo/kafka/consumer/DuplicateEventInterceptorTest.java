@@ -0,0 +1,190 @@
+package demo.kafka.consumer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import demo.kafka.cache.ProcessedEventCache;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.metrics.ProcessingMetrics;
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchInterceptor;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.listener.RecordInterceptor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class DuplicateEventInterceptorTest {
+
+    private static final String LISTENER = "listener";
+    private static final TopicPartition PARTITION = new TopicPartition("topic", 0);
+
+    private ProcessedEventCache processedEventCache;
+    private MeterRegistry meterRegistry;
+    private MessageListenerContainer container;
+    private Consumer<String, byte[]> consumer;
+    private DuplicateEventInterceptor interceptor;
+
+    static class Listeners {
+
+        @IdempotentListener
+        @KafkaListener(id = LISTENER, topics = "topic")
+        void listen(final String payload) {
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        KafkaDemoProperties properties = new KafkaDemoProperties();
+        properties.getProcessedEventCache().setEnabled(true);
+        processedEventCache = new ProcessedEventCache(properties, meterRegistry);
+        IdempotentListenerPostProcessor idempotentListeners = new IdempotentListenerPostProcessor();
+        idempotentListeners.postProcessAfterInitialization(new Listeners(), "listeners");
+        container = mock(MessageListenerContainer.class);
+        consumer = mock(Consumer.class);
+        when(container.getListenerId()).thenReturn(LISTENER);
+        interceptor = new DuplicateEventInterceptor(processedEventCache, new ProcessingMetrics(meterRegistry), idempotentListeners);
+    }
+
+    @Test
+    public void testParseEventId() {
+        UUID eventId = UUID.randomUUID();
+        assertThat(DuplicateEventInterceptor.parseEventId(eventId.toString().getBytes(StandardCharsets.UTF_8)), equalTo(eventId));
+        assertThat(DuplicateEventInterceptor.parseEventId(eventId.toString().toUpperCase().getBytes(StandardCharsets.UTF_8)), equalTo(eventId));
+        assertThat(DuplicateEventInterceptor.parseEventId("not-a-uuid".getBytes(StandardCharsets.UTF_8)), nullValue());
+        assertThat(DuplicateEventInterceptor.parseEventId(eventId.toString().replace('-', 'x').getBytes(StandardCharsets.UTF_8)), nullValue());
+        assertThat(DuplicateEventInterceptor.parseEventId(null), nullValue());
+    }
+
+    /**
+     * Including the retry topic listeners derived from the idempotent listener, but not a listener whose id merely starts
+     * with the same name.
+     */
+    @Test
+    public void testEnabledForIdempotentListenersOnly() {
+        assertThat(interceptor.isEnabled(container), equalTo(true));
+        assertThat(interceptor.isEnabled(container(LISTENER + "-retry-0")), equalTo(true));
+        assertThat(interceptor.isEnabled(container(LISTENER + "WithOutbox")), equalTo(false));
+        assertThat(interceptor.isEnabled(container("other")), equalTo(false));
+    }
+
+    @Test
+    public void testRecordInterceptor_DropsProcessedEvents() {
+        UUID processed = UUID.randomUUID();
+        processedEventCache.addAfterCommit(processed);
+        RecordInterceptor<String, byte[]> recordInterceptor = interceptor.recordInterceptor(container);
+
+        ConsumerRecord<String, byte[]> duplicate = record(0, processed.toString());
+        ConsumerRecord<String, byte[]> unprocessed = record(1, UUID.randomUUID().toString());
+        ConsumerRecord<String, byte[]> invalid = record(2, "invalid");
+
+        assertThat(recordInterceptor.intercept(duplicate, null), nullValue());
+        assertThat(recordInterceptor.intercept(unprocessed, null), sameInstance(unprocessed));
+        assertThat(recordInterceptor.intercept(invalid, null), sameInstance(invalid));
+        assertThat(meterRegistry.get(ProcessingMetrics.CONSUMER_EVENTS).tag("outcome", "duplicate").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testBatchInterceptor_RemovesProcessedEvents() {
+        UUID processed = UUID.randomUUID();
+        processedEventCache.addAfterCommit(processed);
+        BatchInterceptor<String, byte[]> batchInterceptor = interceptor.batchInterceptor(container);
+        ConsumerRecord<String, byte[]> first = record(0, UUID.randomUUID().toString());
+        ConsumerRecord<String, byte[]> third = record(2, UUID.randomUUID().toString());
+
+        ConsumerRecords<String, byte[]> retained = batchInterceptor.intercept(
+                new ConsumerRecords<>(Map.of(PARTITION, List.of(first, record(1, processed.toString()), third))), consumer);
+
+        assertThat(retained.records(PARTITION), contains(first, third));
+    }
+
+    /**
+     * The listener's acknowledgement only covers the records passed to it, so a trailing duplicate is kept.
+     */
+    @Test
+    public void testBatchInterceptor_KeepsLastDuplicateOfPartition() {
+        UUID processed = UUID.randomUUID();
+        UUID alsoProcessed = UUID.randomUUID();
+        processedEventCache.addAfterCommit(List.of(processed, alsoProcessed));
+        BatchInterceptor<String, byte[]> batchInterceptor = interceptor.batchInterceptor(container);
+        ConsumerRecord<String, byte[]> first = record(0, UUID.randomUUID().toString());
+        ConsumerRecord<String, byte[]> last = record(2, alsoProcessed.toString());
+
+        ConsumerRecords<String, byte[]> retained = batchInterceptor.intercept(
+                new ConsumerRecords<>(Map.of(PARTITION, List.of(first, record(1, processed.toString()), last))), consumer);
+
+        assertThat(retained.records(PARTITION), contains(first, last));
+        assertThat(meterRegistry.get(ProcessingMetrics.CONSUMER_EVENTS).tag("outcome", "duplicate").counter().count(), equalTo(1.0));
+        verifyNoInteractions(consumer);
+    }
+
+    @Test
+    public void testBatchInterceptor_BatchOfDuplicatesNotPassedOn() {
+        UUID processed = UUID.randomUUID();
+        processedEventCache.addAfterCommit(processed);
+        BatchInterceptor<String, byte[]> batchInterceptor = interceptor.batchInterceptor(container);
+
+        assertThat(batchInterceptor.intercept(new ConsumerRecords<>(Map.of(PARTITION, List.of(record(0, processed.toString()), record(1, processed.toString())))), consumer), nullValue());
+        verify(consumer).commitSync(Map.of(PARTITION, new OffsetAndMetadata(2)));
+    }
+
+    /**
+     * The offsets of a partition of only duplicates are committed, as it is not passed to the listener.
+     */
+    @Test
+    public void testBatchInterceptor_CommitsPartitionOfDuplicates() {
+        UUID processed = UUID.randomUUID();
+        processedEventCache.addAfterCommit(processed);
+        BatchInterceptor<String, byte[]> batchInterceptor = interceptor.batchInterceptor(container);
+        TopicPartition otherPartition = new TopicPartition(PARTITION.topic(), 1);
+        ConsumerRecord<String, byte[]> unprocessed = record(0, UUID.randomUUID().toString());
+        ConsumerRecord<String, byte[]> duplicate = new ConsumerRecord<>(otherPartition.topic(), otherPartition.partition(), 5, "key", "{}".getBytes(StandardCharsets.UTF_8));
+        duplicate.headers().add(KafkaClient.EVENT_ID_HEADER_KEY, processed.toString().getBytes(StandardCharsets.UTF_8));
+
+        ConsumerRecords<String, byte[]> retained = batchInterceptor.intercept(
+                new ConsumerRecords<>(Map.of(PARTITION, List.of(unprocessed), otherPartition, List.of(duplicate))), consumer);
+
+        assertThat(retained.partitions(), contains(PARTITION));
+        verify(consumer).commitSync(Map.of(otherPartition, new OffsetAndMetadata(6)));
+    }
+
+    @Test
+    public void testBatchInterceptor_BatchWithoutDuplicatesUnchanged() {
+        BatchInterceptor<String, byte[]> batchInterceptor = interceptor.batchInterceptor(container);
+        ConsumerRecords<String, byte[]> records = new ConsumerRecords<>(Map.of(PARTITION, List.of(record(0, UUID.randomUUID().toString()))));
+
+        assertThat(batchInterceptor.intercept(records, consumer), sameInstance(records));
+    }
+
+    private static MessageListenerContainer container(final String listenerId) {
+        MessageListenerContainer container = mock(MessageListenerContainer.class);
+        when(container.getListenerId()).thenReturn(listenerId);
+        return container;
+    }
+
+    private static ConsumerRecord<String, byte[]> record(final long offset, final String eventId) {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, "key", "{}".getBytes(StandardCharsets.UTF_8));
+        record.headers().add(KafkaClient.EVENT_ID_HEADER_KEY, eventId.getBytes(StandardCharsets.UTF_8));
+        return record;
+    }
+}
@@ -0,0 +1,168 @@
+package demo.kafka.consumer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.listener.BatchInterceptor;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.listener.RecordInterceptor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FlowControllerTest {
+
+    private static final String LISTENER = "listener";
+    private static final List<TopicPartition> PARTITIONS = List.of(new TopicPartition("topic", 0), new TopicPartition("topic", 1), new TopicPartition("topic", 2));
+
+    private KafkaDemoProperties properties;
+    private MessageListenerContainer container;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new KafkaDemoProperties();
+        properties.getFlowControl().setEnabled(true);
+        properties.getFlowControl().setLatencyThreshold(Duration.ofMillis(10));
+        properties.getFlowControl().setPauseDuration(Duration.ZERO);
+        container = mock(MessageListenerContainer.class);
+        when(container.getListenerId()).thenReturn(LISTENER);
+        when(container.getAssignedPartitions()).thenReturn(PARTITIONS);
+    }
+
+    @Test
+    public void testPausesOnLatencyAndResumesGradually() throws Exception {
+        FlowController flowController = new FlowController(properties, new SimpleMeterRegistry(), 30_000, 500);
+        RecordInterceptor<String, byte[]> interceptor = flowController.recordInterceptor(container);
+
+        process(interceptor, 20, false);
+        flowController.check();
+        PARTITIONS.forEach(partition -> verify(container).pausePartition(partition));
+
+        flowController.check();
+        verify(container).resumePartition(PARTITIONS.get(0));
+        verify(container, never()).resumePartition(PARTITIONS.get(1));
+
+        flowController.check();
+        flowController.check();
+        PARTITIONS.forEach(partition -> verify(container).resumePartition(partition));
+    }
+
+    @Test
+    public void testPausesOnErrorRate() throws Exception {
+        FlowController flowController = new FlowController(properties, new SimpleMeterRegistry(), 30_000, 500);
+        RecordInterceptor<String, byte[]> interceptor = flowController.recordInterceptor(container);
+
+        process(interceptor, 0, true);
+        process(interceptor, 0, false);
+        process(interceptor, 0, true);
+        flowController.check();
+
+        PARTITIONS.forEach(partition -> verify(container).pausePartition(partition));
+    }
+
+    /**
+     * The partitions of a restarted container are no longer paused, so are paused afresh should the latency persist.
+     */
+    @Test
+    public void testResetOnRestart() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        FlowController flowController = new FlowController(properties, meterRegistry, 30_000, 500);
+        RecordInterceptor<String, byte[]> interceptor = flowController.recordInterceptor(container);
+        process(interceptor, 20, false);
+        flowController.check();
+
+        flowController.reset(LISTENER);
+
+        assertThat(meterRegistry.get(FlowController.PAUSED_PARTITIONS).gauge().value(), equalTo(0.0));
+        process(interceptor, 20, false);
+        flowController.check();
+        PARTITIONS.forEach(partition -> verify(container, times(2)).pausePartition(partition));
+    }
+
+    @Test
+    public void testHealthyProcessingIsNotPaused() throws Exception {
+        FlowController flowController = new FlowController(properties, new SimpleMeterRegistry(), 30_000, 500);
+        RecordInterceptor<String, byte[]> interceptor = flowController.recordInterceptor(container);
+
+        process(interceptor, 0, false);
+        flowController.check();
+
+        verify(container, times(0)).pausePartition(PARTITIONS.get(0));
+    }
+
+    /**
+     * With a poll budget of half of a one second max poll interval, and records taking 10ms or more, no more than 50
+     * records of a batch are processed.  The limit is computed as the batch is intercepted, and is given to the listener
+     * until the batch completes.
+     */
+    @Test
+    public void testBatchLimitFollowsLatency() throws Exception {
+        properties.getFlowControl().setLatencyThreshold(Duration.ofSeconds(10));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        FlowController flowController = new FlowController(properties, meterRegistry, 1_000, 500);
+        BatchInterceptor<String, byte[]> interceptor = flowController.batchInterceptor(container);
+        assertThat(meterRegistry.get(FlowController.BATCH_SIZE).gauge().value(), equalTo(500.0));
+
+        ConsumerRecords<String, byte[]> records = records(2);
+        interceptor.intercept(records, null);
+        assertThat(flowController.batchLimit(2), equalTo(2));
+        TimeUnit.MILLISECONDS.sleep(20);
+        interceptor.success(records, null);
+        flowController.check();
+
+        assertThat(meterRegistry.get(FlowController.BATCH_SIZE).gauge().value(), lessThanOrEqualTo(50.0));
+        assertThat(meterRegistry.get(FlowController.BATCH_SIZE).gauge().value(), greaterThan(0.0));
+
+        records = records(500);
+        interceptor.intercept(records, null);
+        assertThat((double) flowController.batchLimit(500), equalTo(meterRegistry.get(FlowController.BATCH_SIZE).gauge().value()));
+        interceptor.success(records, null);
+        assertThat(flowController.batchLimit(500), equalTo(500));
+    }
+
+    /**
+     * Without the batch interceptor there is no limit.
+     */
+    @Test
+    public void testDisabledDoesNotLimitBatches() {
+        properties.getFlowControl().setEnabled(false);
+        FlowController flowController = new FlowController(properties, new SimpleMeterRegistry(), 30_000, 500);
+
+        assertThat(flowController.batchLimit(500), equalTo(500));
+    }
+
+    private static ConsumerRecords<String, byte[]> records(int count) {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new ConsumerRecord<>("topic", 0, i, "key", new byte[0]));
+        }
+        return new ConsumerRecords<>(Map.of(PARTITIONS.get(0), records));
+    }
+
+    private static void process(RecordInterceptor<String, byte[]> interceptor, long millis, boolean fail) throws Exception {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("topic", 0, 0, "key", new byte[0]);
+        interceptor.intercept(record, null);
+        TimeUnit.MILLISECONDS.sleep(millis);
+        if (fail) {
+            interceptor.failure(record, new RuntimeException("failed"), null);
+        }
+        interceptor.afterRecord(record, null);
+    }
+}
@@ -0,0 +1,140 @@
+package demo.kafka.consumer;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+
+import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.properties.KafkaDemoProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KeyOrderedExecutorTest {
+
+    private static final String LISTENER = "listener";
+
+    private KafkaDemoProperties properties;
+    private KafkaListenerEndpointRegistry registry;
+    private MessageListenerContainer container;
+    private KeyOrderedExecutor executor;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new KafkaDemoProperties();
+        properties.getParallelListener().setLanes(2);
+        properties.getParallelListener().setMaxInFlight(1);
+        properties.getParallelListener().setMaxAttempts(2);
+        properties.getParallelListener().setRetryBackoff(Duration.ofSeconds(5));
+        registry = mock(KafkaListenerEndpointRegistry.class);
+        container = mock(MessageListenerContainer.class);
+        when(registry.getListenerContainer(LISTENER)).thenReturn(container);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.destroy();
+    }
+
+    /**
+     * The keyless records are placed on the lane of their partition, so the second record is processed on the other lane
+     * while the first backs off.
+     */
+    @Test
+    public void testPermitReleasedDuringBackoff() throws Exception {
+        executor = new KeyOrderedExecutor(properties, mock(DataSource.class), registry, new SimpleMeterRegistry());
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch failed = new CountDownLatch(1);
+        executor.execute(LISTENER, null, 0, mock(Acknowledgment.class), () -> {
+            if (attempts.incrementAndGet() == 1) {
+                failed.countDown();
+                throw new KafkaDemoRetryableException("Retryable");
+            }
+        });
+        assertThat(failed.await(5, TimeUnit.SECONDS), equalTo(true));
+
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        executor.execute(LISTENER, null, 1, acknowledgment, () -> {});
+
+        verify(acknowledgment, timeout(1000)).acknowledge();
+        assertThat(attempts.get(), equalTo(1));
+    }
+
+    /**
+     * The record exhausting its attempts is not acknowledged, and its lane stops, so the later record for the lane is
+     * neither processed nor acknowledged.  The other lane carries on, while the container is paused, and the service is
+     * marked down, until restarted.
+     */
+    @Test
+    public void testLaneStoppedAfterExhaustedAttempts() throws Exception {
+        properties.getParallelListener().setRetryBackoff(Duration.ofMillis(10));
+        executor = new KeyOrderedExecutor(properties, mock(DataSource.class), registry, new SimpleMeterRegistry());
+        AtomicInteger attempts = new AtomicInteger();
+        Acknowledgment failedAcknowledgment = mock(Acknowledgment.class);
+        executor.execute(LISTENER, null, 0, failedAcknowledgment, () -> {
+            attempts.incrementAndGet();
+            throw new KafkaDemoRetryableException("Retryable");
+        });
+        verify(failedAcknowledgment, after(500).never()).acknowledge();
+        assertThat(attempts.get(), equalTo(2));
+
+        AtomicInteger laterProcessed = new AtomicInteger();
+        Acknowledgment laterAcknowledgment = mock(Acknowledgment.class);
+        executor.execute(LISTENER, null, 0, laterAcknowledgment, laterProcessed::incrementAndGet);
+        Acknowledgment otherLaneAcknowledgment = mock(Acknowledgment.class);
+        executor.execute(LISTENER, null, 1, otherLaneAcknowledgment, () -> {});
+
+        verify(otherLaneAcknowledgment, timeout(1000)).acknowledge();
+        verify(laterAcknowledgment, after(200).never()).acknowledge();
+        assertThat(laterProcessed.get(), equalTo(0));
+        verify(container).pause();
+        verify(container, never()).resume();
+        assertThat(executor.health().getStatus(), equalTo(Status.DOWN));
+    }
+
+    /**
+     * The container is paused, rather than the listener blocked, once a lane is full, and resumed once it has drained.
+     */
+    @Test
+    public void testPausedWhileLaneFull() throws Exception {
+        properties.getParallelListener().setLaneCapacity(2);
+        properties.getParallelListener().setMaxInFlight(2);
+        executor = new KeyOrderedExecutor(properties, mock(DataSource.class), registry, new SimpleMeterRegistry());
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(LISTENER, null, 0, mock(Acknowledgment.class), () -> await(release));
+        executor.execute(LISTENER, null, 0, mock(Acknowledgment.class), () -> {});
+        executor.execute(LISTENER, null, 0, mock(Acknowledgment.class), () -> {});
+
+        verify(container).pause();
+        assertThat(executor.isPaused(), equalTo(true));
+
+        release.countDown();
+        verify(container, timeout(1000)).resume();
+        assertThat(executor.isPaused(), equalTo(false));
+        assertThat(executor.health().getStatus(), equalTo(Status.UP));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
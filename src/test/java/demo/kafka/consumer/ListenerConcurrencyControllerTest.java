@@ -0,0 +1,150 @@
+package demo.kafka.consumer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.ListConsumerGroupOffsetsResult;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ListenerConcurrencyControllerTest {
+
+    private static final String LISTENER = "listener";
+    private static final String GROUP = "group";
+    private static final List<TopicPartition> PARTITIONS = List.of(new TopicPartition("topic", 0), new TopicPartition("topic", 1),
+            new TopicPartition("topic", 2), new TopicPartition("topic", 3));
+
+    private KafkaDemoProperties properties;
+    private ConcurrentMessageListenerContainer<String, byte[]> container;
+    private Admin admin;
+    private MeterRegistry meterRegistry;
+    private FlowController flowController;
+    private ListenerConcurrencyController controller;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        properties = new KafkaDemoProperties();
+        properties.getListenerConcurrency().setEnabled(true);
+        properties.getListenerConcurrency().setLagPerConsumer(100);
+        properties.getListenerConcurrency().setCooldown(Duration.ZERO);
+        container = mock(ConcurrentMessageListenerContainer.class);
+        when(container.getListenerId()).thenReturn(LISTENER);
+        when(container.getGroupId()).thenReturn(GROUP);
+        when(container.isRunning()).thenReturn(true);
+        when(container.getConcurrency()).thenReturn(1);
+        when(container.getAssignedPartitions()).thenReturn(PARTITIONS);
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(container).stop(any(Runnable.class));
+        KafkaListenerEndpointRegistry registry = mock(KafkaListenerEndpointRegistry.class);
+        when(registry.getListenerContainers()).thenReturn(List.of(container));
+        admin = mock(Admin.class);
+        meterRegistry = new SimpleMeterRegistry();
+        flowController = mock(FlowController.class);
+        controller = new ListenerConcurrencyController(properties, registry, flowController, mock(KafkaAdmin.class), meterRegistry, config -> admin);
+    }
+
+    @Test
+    public void testScalesUpWithLag() {
+        stubOffsets(0, 40);
+
+        controller.check();
+
+        verify(container).setConcurrency(2);
+        verify(container).start();
+        verify(flowController).reset(LISTENER);
+        assertThat(meterRegistry.get(ListenerConcurrencyController.LAG).gauge().value(), equalTo(160.0));
+    }
+
+    /**
+     * The lag calls for forty consumers, but the container has only four partitions assigned.
+     */
+    @Test
+    public void testNeverScalesBeyondTheAssignedPartitions() {
+        stubOffsets(0, 1000);
+
+        controller.check();
+
+        verify(container).setConcurrency(4);
+    }
+
+    @Test
+    public void testScalesDownOnceCaughtUp() {
+        when(container.getConcurrency()).thenReturn(4);
+        stubOffsets(1000, 1000);
+
+        controller.check();
+
+        verify(container).setConcurrency(1);
+        assertThat(meterRegistry.get(ListenerConcurrencyController.CONCURRENCY).gauge().value(), equalTo(4.0));
+    }
+
+    @Test
+    public void testChangesAreACooldownApart() {
+        properties.getListenerConcurrency().setCooldown(Duration.ofMinutes(1));
+        stubOffsets(0, 40);
+        controller.check();
+
+        when(container.getConcurrency()).thenReturn(2);
+        stubOffsets(0, 1000);
+        controller.check();
+
+        verify(container, times(1)).stop(any(Runnable.class));
+        verify(container, never()).setConcurrency(4);
+    }
+
+    @Test
+    public void testUnchangedWithinBounds() {
+        stubOffsets(0, 10);
+
+        controller.check();
+
+        verify(container, never()).stop(any(Runnable.class));
+        verify(container, never()).setConcurrency(anyInt());
+    }
+
+    /**
+     * Every partition has the same committed and end offsets.
+     */
+    @SuppressWarnings("unchecked")
+    private void stubOffsets(long committed, long end) {
+        ListConsumerGroupOffsetsResult offsetsResult = mock(ListConsumerGroupOffsetsResult.class);
+        when(offsetsResult.partitionsToOffsetAndMetadata()).thenReturn(KafkaFuture.completedFuture(PARTITIONS.stream()
+                .collect(Collectors.toMap(partition -> partition, partition -> new OffsetAndMetadata(committed)))));
+        when(admin.listConsumerGroupOffsets(GROUP)).thenReturn(offsetsResult);
+        ListOffsetsResult endsResult = mock(ListOffsetsResult.class);
+        Map<TopicPartition, ListOffsetsResultInfo> ends = PARTITIONS.stream()
+                .collect(Collectors.toMap(partition -> partition, partition -> new ListOffsetsResultInfo(end, 0, Optional.empty())));
+        when(endsResult.all()).thenReturn(KafkaFuture.completedFuture(ends));
+        when(admin.listOffsets(anyMap())).thenReturn(endsResult);
+    }
+}
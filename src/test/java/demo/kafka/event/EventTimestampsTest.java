@@ -0,0 +1,78 @@
+package demo.kafka.event;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.KafkaHeaders;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class EventTimestampsTest {
+
+    private static final long RECORD_TIMESTAMP = 1_700_000_000_000L;
+
+    @Test
+    public void testConsumed_OriginFromHeader() {
+        Headers headers = new RecordHeaders();
+        headers.add(EventTimestamps.ORIGIN_TIMESTAMP_HEADER_KEY, "1699999999000".getBytes(StandardCharsets.UTF_8));
+
+        EventTimestamps timestamps = EventTimestamps.consumed(headers, RECORD_TIMESTAMP);
+
+        assertThat(timestamps.getOrigin(), equalTo(1_699_999_999_000L));
+        assertThat(timestamps.getInbound(), equalTo(RECORD_TIMESTAMP));
+        assertThat(timestamps.getConsumed(), greaterThanOrEqualTo(RECORD_TIMESTAMP));
+    }
+
+    @Test
+    public void testConsumed_OriginDefaultsToRecordTimestamp() {
+        assertThat(EventTimestamps.consumed(new RecordHeaders(), RECORD_TIMESTAMP).getOrigin(), equalTo(RECORD_TIMESTAMP));
+        assertThat(EventTimestamps.consumed("not-a-timestamp", RECORD_TIMESTAMP).getOrigin(), equalTo(RECORD_TIMESTAMP));
+    }
+
+    @Test
+    public void testAddTo() {
+        Headers headers = new RecordHeaders();
+
+        new EventTimestamps(1L, 2L, 3L).addTo(headers);
+
+        assertThat(header(headers, EventTimestamps.ORIGIN_TIMESTAMP_HEADER_KEY), equalTo("1"));
+        assertThat(header(headers, EventTimestamps.INBOUND_TIMESTAMP_HEADER_KEY), equalTo("2"));
+        assertThat(header(headers, EventTimestamps.CONSUMED_TIMESTAMP_HEADER_KEY), equalTo("3"));
+    }
+
+    /**
+     * A record forwarded to a retry topic is stamped with the timestamp of the inbound record, and keeps it on later
+     * retries.
+     */
+    @Test
+    public void testStampOrigin() {
+        Headers headers = new RecordHeaders();
+        headers.add(KafkaHeaders.ORIGINAL_TIMESTAMP, ByteBuffer.allocate(Long.BYTES).putLong(RECORD_TIMESTAMP).array());
+
+        EventTimestamps.stampOrigin(headers);
+        headers.add(KafkaHeaders.ORIGINAL_TIMESTAMP, ByteBuffer.allocate(Long.BYTES).putLong(RECORD_TIMESTAMP + 1000).array());
+        EventTimestamps.stampOrigin(headers);
+
+        assertThat(header(headers, EventTimestamps.ORIGIN_TIMESTAMP_HEADER_KEY), equalTo(Long.toString(RECORD_TIMESTAMP)));
+        assertThat(EventTimestamps.consumed(headers, RECORD_TIMESTAMP + 2000).getOrigin(), equalTo(RECORD_TIMESTAMP));
+    }
+
+    @Test
+    public void testStampOrigin_NotForwarded() {
+        Headers headers = new RecordHeaders();
+
+        EventTimestamps.stampOrigin(headers);
+
+        assertThat(headers.lastHeader(EventTimestamps.ORIGIN_TIMESTAMP_HEADER_KEY), nullValue());
+    }
+
+    private static String header(Headers headers, String key) {
+        return new String(headers.lastHeader(key).value(), StandardCharsets.UTF_8);
+    }
+}
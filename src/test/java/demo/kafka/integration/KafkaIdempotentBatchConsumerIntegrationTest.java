@@ -0,0 +1,161 @@
+package demo.kafka.integration;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.repository.OutboxEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+@Slf4j
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-idempotent-inbound-topic", "demo-idempotent-with-outbox-inbound-topic" })
+@TestPropertySource(properties = "kafkademo.listenerMode=batch")
+public class KafkaIdempotentBatchConsumerIntegrationTest extends IntegrationTestBase {
+
+    final static String DEMO_IDEMPOTENT_TEST_TOPIC = "demo-idempotent-inbound-topic";
+    final static String DEMO_IDEMPOTENT_AND_OUTBOX_TEST_TOPIC = "demo-idempotent-with-outbox-inbound-topic";
+
+    @Autowired
+    private KafkaBatchTestListener testReceiver;
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Configuration
+    static class TestConfig {
+
+        @Bean
+        public KafkaBatchTestListener batchTestReceiver() {
+            return new KafkaBatchTestListener();
+        }
+    }
+
+    /**
+     * Use this receiver to consume messages from the outbound topic.
+     */
+    public static class KafkaBatchTestListener {
+        AtomicInteger counter = new AtomicInteger(0);
+
+        @KafkaListener(groupId = "KafkaIdempotentBatchConsumerIntegrationTest", topics = "demo-outbound-topic", autoStartup = "true")
+        void receive(@Payload final String payload) {
+            log.debug("KafkaBatchTestListener - Received message: " + payload);
+            counter.incrementAndGet();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+        outboxEventRepository.deleteAll();
+    }
+
+    /**
+     * Send in duplicate events for two event Ids and show only one outbound event is emitted for each.
+     */
+    @Test
+    public void testEventDeduplication_IdempotentBatchConsumer() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId1 = UUID.randomUUID().toString();
+        String eventId2 = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId1, key, inboundEvent);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId1, key, inboundEvent);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId2, key, inboundEvent);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId2, key, inboundEvent);
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(2));
+
+        // Now check the duplicate events have been deduplicated.
+        TimeUnit.SECONDS.sleep(5);
+        assertThat(testReceiver.counter.get(), equalTo(2));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+    }
+
+    /**
+     * Send in a duplicate of a processed event on its own, so it is dropped by the interceptor and the listener is not
+     * invoked, and show its offset is still committed.
+     */
+    @Test
+    public void testBatchOfDuplicatesCommitted() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+
+        RecordMetadata duplicate = sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent).getRecordMetadata();
+        TopicPartition partition = new TopicPartition(duplicate.topic(), duplicate.partition());
+        try (Admin admin = Admin.create(Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, embeddedKafkaBroker.getBrokersAsString()))) {
+            Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                    .until(() -> committedOffset(admin, partition), equalTo(duplicate.offset() + 1));
+        }
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+    }
+
+    private static Long committedOffset(final Admin admin, final TopicPartition partition) throws Exception {
+        OffsetAndMetadata offset = admin.listConsumerGroupOffsets("kafkaConsumerGroup")
+                .partitionsToOffsetAndMetadata().get().get(partition);
+        return offset != null ? offset.offset() : null;
+    }
+
+    /**
+     * Send in duplicate events for two event Ids and show only one outbox event is written for each.
+     */
+    @Test
+    public void testEventDeduplication_IdempotentBatchConsumerWithOutbox() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId1 = UUID.randomUUID().toString();
+        String eventId2 = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_IDEMPOTENT_AND_OUTBOX_TEST_TOPIC, eventId1, key, inboundEvent);
+        sendMessage(DEMO_IDEMPOTENT_AND_OUTBOX_TEST_TOPIC, eventId2, key, inboundEvent);
+        sendMessage(DEMO_IDEMPOTENT_AND_OUTBOX_TEST_TOPIC, eventId1, key, inboundEvent);
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(outboxEventRepository::count, equalTo(2L));
+
+        // Ensure no duplicate event is written to the outbox table.
+        TimeUnit.SECONDS.sleep(5);
+        assertThat(outboxEventRepository.count(), equalTo(2L));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+    }
+}
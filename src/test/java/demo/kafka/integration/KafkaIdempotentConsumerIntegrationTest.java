@@ -1,17 +1,25 @@
 package demo.kafka.integration;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.event.EventTimestamps;
+import demo.kafka.metrics.ProcessingMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.awaitility.Awaitility;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.test.context.EmbeddedKafka;
 import org.springframework.messaging.MessageHeaders;
@@ -25,6 +33,7 @@ import static com.github.tomakehurst.wiremock.client.WireMock.verify;
 import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 
 @Slf4j
 @EmbeddedKafka(controlledShutdown = true, topics = { "demo-idempotent-inbound-topic", "demo-non-idempotent-inbound-topic" })
@@ -36,6 +45,12 @@ public class KafkaIdempotentConsumerIntegrationTest extends IntegrationTestBase
     @Autowired
     private KafkaTestListener testReceiver;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Configuration
     static class TestConfig {
 
@@ -50,10 +65,12 @@ public class KafkaIdempotentConsumerIntegrationTest extends IntegrationTestBase
      */
     public static class KafkaTestListener {
         AtomicInteger counter = new AtomicInteger(0);
+        volatile MessageHeaders headers;
 
         @KafkaListener(groupId = "KafkaIdempotentConsumerIntegrationTest", topics = "demo-outbound-topic", autoStartup = "true")
         void receive(@Payload final String payload, @Headers final MessageHeaders headers) {
             log.debug("KafkaTestListener - Received message: " + payload);
+            this.headers = headers;
             counter.incrementAndGet();
         }
     }
@@ -70,12 +87,28 @@ public class KafkaIdempotentConsumerIntegrationTest extends IntegrationTestBase
         String eventId = UUID.randomUUID().toString();
         stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
 
-        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+        RecordMetadata metadata = sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key)).getRecordMetadata();
 
         // Check for a message being emitted on demo-outbound-topic
         Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
                 .until(testReceiver.counter::get, equalTo(1));
         verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+
+        // The processed event records the partition and offset it was consumed from.
+        Map<String, Object> processedEvent = jdbcTemplate.queryForMap("SELECT source_topic, source_partition, source_offset FROM processed_event WHERE eventid = ?", UUID.fromString(eventId));
+        assertThat(processedEvent.get("source_topic"), equalTo(DEMO_IDEMPOTENT_TEST_TOPIC));
+        assertThat(((Number) processedEvent.get("source_partition")).intValue(), equalTo(metadata.partition()));
+        assertThat(((Number) processedEvent.get("source_offset")).longValue(), equalTo(metadata.offset()));
+
+        // The outbound event carries the timestamps of the inbound event, with its origin the inbound record timestamp.
+        assertThat(header(EventTimestamps.ORIGIN_TIMESTAMP_HEADER_KEY), equalTo(metadata.timestamp()));
+        assertThat(header(EventTimestamps.INBOUND_TIMESTAMP_HEADER_KEY), equalTo(metadata.timestamp()));
+        assertThat(header(EventTimestamps.CONSUMED_TIMESTAMP_HEADER_KEY), greaterThanOrEqualTo(metadata.timestamp()));
+        assertThat(meterRegistry.get(ProcessingMetrics.END_TO_END_LATENCY).tag("path", "idempotent").timer().count(), greaterThanOrEqualTo(1L));
+    }
+
+    private long header(String key) {
+        return Long.parseLong(new String((byte[]) testReceiver.headers.get(key), StandardCharsets.UTF_8));
     }
 
     /**
@@ -86,6 +119,8 @@ public class KafkaIdempotentConsumerIntegrationTest extends IntegrationTestBase
         String key = UUID.randomUUID().toString();
         String eventId = UUID.randomUUID().toString();
         stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+        double processed = consumedEvents("processed");
+        double duplicates = consumedEvents("duplicate");
 
         DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
         sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
@@ -100,6 +135,8 @@ public class KafkaIdempotentConsumerIntegrationTest extends IntegrationTestBase
         TimeUnit.SECONDS.sleep(5);
         assertThat(testReceiver.counter.get(), equalTo(1));
         verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+        assertThat(consumedEvents("processed") - processed, equalTo(1.0));
+        assertThat(consumedEvents("duplicate") - duplicates, equalTo(2.0));
     }
 
     /**
@@ -121,4 +158,11 @@ public class KafkaIdempotentConsumerIntegrationTest extends IntegrationTestBase
                 .until(testReceiver.counter::get, equalTo(3));
         verify(exactly(3), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
     }
+
+    private double consumedEvents(String outcome) {
+        Counter counter = meterRegistry.find(ProcessingMetrics.CONSUMER_EVENTS)
+                .tags("listener", "KafkaIdempotentConsumer", "topic", DEMO_IDEMPOTENT_TEST_TOPIC, "outcome", outcome)
+                .counter();
+        return counter != null ? counter.count() : 0;
+    }
 }
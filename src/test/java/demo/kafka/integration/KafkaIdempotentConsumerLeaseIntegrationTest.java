@@ -0,0 +1,208 @@
+package demo.kafka.integration;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.metrics.ProcessingMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+@Slf4j
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-idempotent-inbound-topic" })
+@TestPropertySource(properties = {
+        "kafkademo.processedEventLease.enabled=true",
+        // Rejected by the processed event table rather than the cache.
+        "kafkademo.processedEventCache.enabled=false"
+})
+public class KafkaIdempotentConsumerLeaseIntegrationTest extends IntegrationTestBase {
+
+    final static String DEMO_IDEMPOTENT_TEST_TOPIC = "demo-idempotent-inbound-topic";
+
+    @Autowired
+    private KafkaLeaseTestListener testReceiver;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Configuration
+    static class TestConfig {
+
+        @Bean
+        public KafkaLeaseTestListener leaseTestReceiver() {
+            return new KafkaLeaseTestListener();
+        }
+    }
+
+    /**
+     * Use this receiver to consume messages from the outbound topic.
+     */
+    public static class KafkaLeaseTestListener {
+        AtomicInteger counter = new AtomicInteger(0);
+
+        @KafkaListener(groupId = "KafkaIdempotentConsumerLeaseIntegrationTest", topics = "demo-outbound-topic", autoStartup = "true")
+        void receive(@Payload final String payload) {
+            log.debug("KafkaLeaseTestListener - Received message: " + payload);
+            counter.incrementAndGet();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    /**
+     * Send in three events and show two are deduplicated, with the processed event completed and its lease cleared.
+     */
+    @Test
+    public void testEventDeduplication_EventCompleted() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        TimeUnit.SECONDS.sleep(3);
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+
+        Map<String, Object> processedEvent = processedEvent(eventId);
+        assertThat(processedEvent.get("status"), equalTo("COMPLETE"));
+        assertThat(processedEvent.get("lease_id"), nullValue());
+    }
+
+    /**
+     * The event was claimed by a consumer that stopped before completing it, so is reclaimed once its lease has expired.
+     */
+    @Test
+    public void testExpiredClaim_Reclaimed() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+        insertClaim(eventId, Instant.now().minus(Duration.ofMinutes(1)));
+
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> processedEvent(eventId).get("status"), equalTo("COMPLETE"));
+    }
+
+    /**
+     * The event is claimed by another consumer whose lease has not expired, so is not processed.
+     */
+    @Test
+    public void testUnexpiredClaim_NotProcessed() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+        insertClaim(eventId, Instant.now().plus(Duration.ofHours(1)));
+
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        TimeUnit.SECONDS.sleep(3);
+        assertThat(testReceiver.counter.get(), equalTo(0));
+        verify(exactly(0), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+        assertThat(processedEvent(eventId).get("status"), equalTo("PENDING"));
+    }
+
+    /**
+     * The thirdparty call fails with an error that is not retryable, so the claim is released.
+     */
+    @Test
+    public void testNonRetryableError_ClaimReleased() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 400, "Bad Request");
+
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> findAll(getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key))).size(), equalTo(1));
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> jdbcTemplate.queryForObject("SELECT COUNT(*) FROM processed_event WHERE eventid = ?", Integer.class, UUID.fromString(eventId)), equalTo(0));
+        assertThat(testReceiver.counter.get(), equalTo(0));
+    }
+
+    /**
+     * The claim is taken over by another consumer while the thirdparty call is in flight, so the event cannot be completed
+     * and is counted as its claim lost rather than as processed or a duplicate.
+     */
+    @Test
+    public void testClaimTakenOver_CountedAsClaimLost() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubFor(get(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key))
+                .willReturn(aResponse().withStatus(200).withHeader("Content-Type", "text/plain").withBody("Success").withFixedDelay(2000)));
+        double claimsLost = consumedEvents("claim_lost");
+        double duplicates = consumedEvents("duplicate");
+
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> jdbcTemplate.queryForObject("SELECT COUNT(*) FROM processed_event WHERE eventid = ?", Integer.class, UUID.fromString(eventId)), equalTo(1));
+        jdbcTemplate.update("UPDATE processed_event SET lease_id = ? WHERE eventid = ?", UUID.randomUUID(), UUID.fromString(eventId));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> consumedEvents("claim_lost") - claimsLost, equalTo(1.0));
+        assertThat(consumedEvents("duplicate") - duplicates, equalTo(0.0));
+        assertThat(processedEvent(eventId).get("status"), equalTo("PENDING"));
+    }
+
+    private void insertClaim(String eventId, Instant leaseExpiresAt) {
+        jdbcTemplate.update("INSERT INTO processed_event (eventid, status, lease_id, lease_expires_at) VALUES (?, 'PENDING', ?, ?)",
+                UUID.fromString(eventId), UUID.randomUUID(), Timestamp.from(leaseExpiresAt));
+    }
+
+    private Map<String, Object> processedEvent(String eventId) {
+        return jdbcTemplate.queryForMap("SELECT status, lease_id FROM processed_event WHERE eventid = ?", UUID.fromString(eventId));
+    }
+
+    private double consumedEvents(String outcome) {
+        Counter counter = meterRegistry.find(ProcessingMetrics.CONSUMER_EVENTS)
+                .tags("listener", "KafkaIdempotentConsumer", "topic", DEMO_IDEMPOTENT_TEST_TOPIC, "outcome", outcome)
+                .counter();
+        return counter != null ? counter.count() : 0;
+    }
+}
@@ -0,0 +1,181 @@
+package demo.kafka.integration;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.lib.KafkaClient;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+
+@Slf4j
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-idempotent-inbound-topic" },
+        brokerProperties = { "transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1" })
+@TestPropertySource(properties = "kafkademo.kafkaTransactions.enabled=true")
+public class KafkaIdempotentConsumerTransactionalIntegrationTest extends IntegrationTestBase {
+
+    final static String DEMO_IDEMPOTENT_TEST_TOPIC = "demo-idempotent-inbound-topic";
+
+    @Autowired
+    private KafkaTransactionalTestListener testReceiver;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @SpyBean
+    private KafkaClient kafkaClient;
+
+    @Configuration
+    static class TestConfig {
+
+        @Bean
+        public KafkaTransactionalTestListener transactionalTestReceiver() {
+            return new KafkaTransactionalTestListener();
+        }
+    }
+
+    /**
+     * Use this receiver to consume messages from the outbound topic.  As Kafka transactions are enabled it only receives
+     * committed messages.
+     */
+    public static class KafkaTransactionalTestListener {
+        AtomicInteger counter = new AtomicInteger(0);
+
+        @KafkaListener(groupId = "KafkaIdempotentConsumerTransactionalIntegrationTest", topics = "demo-outbound-topic", autoStartup = "true")
+        void receive(@Payload final String payload) {
+            log.debug("KafkaTransactionalTestListener - Received message: " + payload);
+            counter.incrementAndGet();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+    }
+
+    /**
+     * Send in three events and show two are deduplicated, with the processed event completed once the Kafka transaction
+     * commits.
+     */
+    @Test
+    public void testEventDeduplication_TransactionalIdempotentConsumer() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+
+        TimeUnit.SECONDS.sleep(5);
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        assertThat(processedEventStatus(eventId), equalTo("COMPLETE"));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+    }
+
+    /**
+     * A duplicate dropped by the interceptor has its offset sent with the Kafka transaction, so it is committed.
+     */
+    @Test
+    public void testDuplicateCommitted_TransactionalIdempotentConsumer() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+
+        DemoInboundEvent inboundEvent = buildDemoInboundEvent(key);
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+
+        RecordMetadata duplicate = sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent).getRecordMetadata();
+        TopicPartition partition = new TopicPartition(duplicate.topic(), duplicate.partition());
+        try (Admin admin = Admin.create(Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, embeddedKafkaBroker.getBrokersAsString()))) {
+            Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                    .until(() -> committedOffset(admin, partition), equalTo(duplicate.offset() + 1));
+        }
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+    }
+
+    private String processedEventStatus(String eventId) {
+        return jdbcTemplate.queryForObject("SELECT status FROM processed_event WHERE eventid = ?", String.class, UUID.fromString(eventId));
+    }
+
+    private static Long committedOffset(final Admin admin, final TopicPartition partition) throws Exception {
+        OffsetAndMetadata offset = admin.listConsumerGroupOffsets("kafkaConsumerGroup")
+                .partitionsToOffsetAndMetadata().get().get(partition);
+        return offset != null ? offset.offset() : null;
+    }
+
+    /**
+     * The first attempt fails with a retryable error after its outbound event has been sent, so its Kafka transaction is
+     * aborted, the claim on the processed event released, and the event redelivered.  Only the outbound event from the retry is
+     * committed.
+     */
+    @Test
+    public void testRetryableError_OnlyCommittedOutboundEventReceived() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+        AtomicInteger sends = new AtomicInteger();
+        doAnswer(invocation -> {
+            Object result = invocation.callRealMethod();
+            if (sends.incrementAndGet() == 1) {
+                ((CompletableFuture<?>) result).get();
+                throw new KafkaDemoRetryableException("Failed after send");
+            }
+            return result;
+        }).when(kafkaClient).sendMessageAsync(eq(key), any(), any());
+
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+
+        TimeUnit.SECONDS.sleep(3);
+        assertThat(testReceiver.counter.get(), equalTo(1));
+        assertThat(sends.get(), equalTo(2));
+        assertThat(processedEventStatus(eventId), equalTo("COMPLETE"));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+    }
+}
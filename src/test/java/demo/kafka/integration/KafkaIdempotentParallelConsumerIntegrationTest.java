@@ -0,0 +1,129 @@
+package demo.kafka.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.event.DemoInboundEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.equalTo;
+
+@Slf4j
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-idempotent-inbound-topic", "demo-idempotent-with-outbox-inbound-topic" })
+@TestPropertySource(properties = { "kafkademo.listenerMode=parallel", "kafkademo.parallelListener.lanes=4", "kafkademo.parallelListener.retryBackoff=100ms" })
+public class KafkaIdempotentParallelConsumerIntegrationTest extends IntegrationTestBase {
+
+    final static String DEMO_IDEMPOTENT_TEST_TOPIC = "demo-idempotent-inbound-topic";
+
+    @Autowired
+    private KafkaParallelTestListener testReceiver;
+
+    @Configuration
+    static class TestConfig {
+
+        @Bean
+        public KafkaParallelTestListener parallelTestReceiver() {
+            return new KafkaParallelTestListener();
+        }
+    }
+
+    /**
+     * Use this receiver to consume messages from the outbound topic, recording the payloads received for each key.
+     */
+    public static class KafkaParallelTestListener {
+        AtomicInteger counter = new AtomicInteger(0);
+        Map<String, List<String>> payloadsByKey = new ConcurrentHashMap<>();
+
+        @KafkaListener(groupId = "KafkaIdempotentParallelConsumerIntegrationTest", topics = "demo-outbound-topic", autoStartup = "true")
+        void receive(@Header(KafkaHeaders.RECEIVED_KEY) String key, @Payload final String payload) {
+            log.debug("KafkaParallelTestListener - Received message: " + payload);
+            payloadsByKey.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(payload);
+            counter.incrementAndGet();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+        testReceiver.payloadsByKey.clear();
+    }
+
+    /**
+     * Send in a sequence of events, each duplicated, for several keys.  Show the duplicates are deduplicated, and the
+     * outbound events for each key are emitted in the order the inbound events were received.
+     */
+    @Test
+    public void testEventDeduplicationAndKeyOrdering_IdempotentParallelConsumer() throws Exception {
+        List<String> keys = new ArrayList<>();
+        for (int k = 0; k < 8; k++) {
+            String key = UUID.randomUUID().toString();
+            keys.add(key);
+            stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success");
+        }
+
+        for (int sequence = 0; sequence < 5; sequence++) {
+            for (String key : keys) {
+                String eventId = UUID.randomUUID().toString();
+                DemoInboundEvent inboundEvent = DemoInboundEvent.builder().id(key).data("sequence " + sequence).build();
+                sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
+                sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, inboundEvent);
+            }
+        }
+
+        Awaitility.await().atMost(20, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(40));
+
+        TimeUnit.SECONDS.sleep(3);
+        assertThat(testReceiver.counter.get(), equalTo(40));
+        for (String key : keys) {
+            List<String> payloads = testReceiver.payloadsByKey.get(key);
+            assertThat(payloads.size(), equalTo(5));
+            for (int sequence = 0; sequence < 5; sequence++) {
+                assertThat(payloads.get(sequence), endsWith("payload: sequence " + sequence));
+            }
+            verify(exactly(5), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+        }
+    }
+
+    /**
+     * The thirdparty call fails with a retryable error, and is retried on the lane until it succeeds.
+     */
+    @Test
+    public void testRetryableError_RetriedOnLane() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 503, "Unavailable", "retry", "Started", "Succeed");
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success", "retry", "Succeed", "Succeed");
+
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, DemoInboundEvent.builder().id(key).data("retry").build());
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+    }
+}
@@ -0,0 +1,142 @@
+package demo.kafka.integration;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.kafka.event.EventTimestamps;
+import demo.kafka.lib.KafkaClient;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+@Slf4j
+@EmbeddedKafka(controlledShutdown = true, topics = { "demo-idempotent-inbound-topic" })
+@TestPropertySource(properties = {
+        "kafkademo.retryTopics.enabled=true",
+        "kafkademo.retryTopics.maxAttempts=3",
+        "kafkademo.retryTopics.initialInterval=500ms",
+        // Matches the embedded broker's partitions, which the test base waits to be assigned.
+        "kafkademo.retryTopics.partitions=2"
+})
+public class KafkaRetryTopicsIntegrationTest extends IntegrationTestBase {
+
+    final static String DEMO_IDEMPOTENT_TEST_TOPIC = "demo-idempotent-inbound-topic";
+
+    @Autowired
+    private KafkaRetryTopicsTestListener testReceiver;
+
+    @Configuration
+    static class TestConfig {
+
+        @Bean
+        public KafkaRetryTopicsTestListener retryTopicsTestReceiver() {
+            return new KafkaRetryTopicsTestListener();
+        }
+    }
+
+    /**
+     * Use this receiver to consume messages from the outbound and dead letter topics.
+     */
+    public static class KafkaRetryTopicsTestListener {
+        AtomicInteger counter = new AtomicInteger(0);
+        List<String> deadLetterEventIds = new CopyOnWriteArrayList<>();
+        volatile String originTimestamp;
+
+        @KafkaListener(groupId = "KafkaRetryTopicsIntegrationTest", topics = "demo-outbound-topic", autoStartup = "true")
+        void receive(@Payload final String payload, @Header(EventTimestamps.ORIGIN_TIMESTAMP_HEADER_KEY) final String originTimestamp) {
+            log.debug("KafkaRetryTopicsTestListener - Received message: " + payload);
+            this.originTimestamp = originTimestamp;
+            counter.incrementAndGet();
+        }
+
+        @KafkaListener(groupId = "KafkaRetryTopicsIntegrationTest", topics = "demo-idempotent-inbound-topic-dlt", autoStartup = "true")
+        void receiveDeadLetter(@Header(KafkaClient.EVENT_ID_HEADER_KEY) final String eventId) {
+            log.debug("KafkaRetryTopicsTestListener - Received dead letter: " + eventId);
+            deadLetterEventIds.add(eventId);
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.counter.set(0);
+        testReceiver.deadLetterEventIds.clear();
+    }
+
+    /**
+     * The thirdparty call fails with a retryable error, and succeeds when retried from the retry topic.  The outbound event
+     * is stamped with the timestamp of the inbound record, not of the record on the retry topic.
+     */
+    @Test
+    public void testRetryableError_RetriedFromRetryTopic() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 500, "Internal Server Error", "retry", "Started", "Succeed");
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 200, "Success", "retry", "Succeed", "Succeed");
+
+        long timestamp = sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key)).getRecordMetadata().timestamp();
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.counter::get, equalTo(1));
+        verify(exactly(2), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+        assertThat(testReceiver.deadLetterEventIds.size(), equalTo(0));
+        assertThat(testReceiver.originTimestamp, equalTo(Long.toString(timestamp)));
+    }
+
+    /**
+     * The thirdparty call keeps failing with a retryable error, so the event is sent to the dead letter topic with its
+     * event Id once the attempts are exhausted.
+     */
+    @Test
+    public void testRetryableError_DeadLetteredOnceAttemptsExhausted() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 500, "Internal Server Error");
+
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(15, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.deadLetterEventIds::size, equalTo(1));
+        assertThat(testReceiver.deadLetterEventIds, contains(eventId));
+        verify(exactly(3), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+        assertThat(testReceiver.counter.get(), equalTo(0));
+    }
+
+    /**
+     * The thirdparty call fails with an error that is not retryable, so the event is sent straight to the dead letter topic.
+     */
+    @Test
+    public void testNonRetryableError_DeadLettered() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String eventId = UUID.randomUUID().toString();
+        stubWiremock("/api/kafkaidempotentconsumerdemo/" + key, 400, "Bad Request");
+
+        sendMessage(DEMO_IDEMPOTENT_TEST_TOPIC, eventId, key, buildDemoInboundEvent(key));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.deadLetterEventIds::size, equalTo(1));
+        assertThat(testReceiver.deadLetterEventIds, contains(eventId));
+        verify(exactly(1), getRequestedFor(urlEqualTo("/api/kafkaidempotentconsumerdemo/" + key)));
+    }
+}
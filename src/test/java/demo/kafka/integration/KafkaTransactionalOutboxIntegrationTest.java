@@ -21,6 +21,7 @@ import static com.github.tomakehurst.wiremock.client.WireMock.verify;
 import static demo.kafka.util.TestEventData.buildDemoInboundEvent;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 
 @Slf4j
 @EmbeddedKafka(controlledShutdown = true, topics = "demo-idempotent-with-outbox-inbound-topic")
@@ -62,5 +63,8 @@ public class KafkaTransactionalOutboxIntegrationTest extends IntegrationTestBase
         assertThat(outboxEventRepository.count(), equalTo(1L));
         OutboxEvent outboxEvent = outboxEventRepository.findAll().get(0);
         assertThat(outboxEvent.getPayload(), equalTo(TestEventData.INBOUND_DATA));
+        // The inbound events have no origin header, so are measured from the inbound record timestamp.
+        assertThat(outboxEvent.getOriginTimestamp(), equalTo(outboxEvent.getInboundTimestamp()));
+        assertThat(outboxEvent.getConsumedTimestamp(), greaterThanOrEqualTo(outboxEvent.getInboundTimestamp()));
     }
 }
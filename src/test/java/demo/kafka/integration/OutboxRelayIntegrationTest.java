@@ -0,0 +1,161 @@
+package demo.kafka.integration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.event.EventTimestamps;
+import demo.kafka.lib.TimeOrderedUuid;
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.service.OutboxRelayService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * The relay polls, as H2 does not support LISTEN/NOTIFY.
+ */
+@Slf4j
+@EmbeddedKafka(controlledShutdown = true, topics = { OutboxRelayIntegrationTest.DESTINATION_TOPIC })
+@TestPropertySource(properties = {
+        "kafkademo.outboxRelay.enabled=true",
+        "kafkademo.outboxRelay.listenNotify=false",
+        "kafkademo.outboxRelay.pollInterval=100ms",
+        "kafkademo.outboxRetention.mode=none"
+})
+public class OutboxRelayIntegrationTest extends IntegrationTestBase {
+
+    final static String DESTINATION_TOPIC = "demo-outbox-relay-topic";
+
+    // The space makes it an invalid topic name, so its send fails.
+    private final static String INVALID_DESTINATION = "invalid topic";
+
+    @Autowired
+    private KafkaRelayTestListener testReceiver;
+
+    @Autowired
+    private KafkaDemoProperties properties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Configuration
+    static class TestConfig {
+
+        @Bean
+        public KafkaRelayTestListener relayTestReceiver() {
+            return new KafkaRelayTestListener();
+        }
+    }
+
+    /**
+     * Use this receiver to consume the relayed outbox events.
+     */
+    public static class KafkaRelayTestListener {
+        List<ConsumerRecord<String, byte[]>> received = new CopyOnWriteArrayList<>();
+
+        @KafkaListener(groupId = "OutboxRelayIntegrationTest", topics = DESTINATION_TOPIC, autoStartup = "true")
+        void receive(final ConsumerRecord<String, byte[]> record) {
+            log.debug("KafkaRelayTestListener - Received message: " + new String(record.value(), StandardCharsets.UTF_8));
+            received.add(record);
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        testReceiver.received.clear();
+        jdbcTemplate.update("DELETE FROM outbox_event");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        properties.getOutboxRelay().setDeleteAfterPublish(true);
+    }
+
+    /**
+     * The outbox events are sent with their Id and timestamp headers, and deleted once published.
+     */
+    @Test
+    public void testRelay_DeletedAfterPublish() {
+        UUID first = insertOutboxEvent(DESTINATION_TOPIC, "first");
+        UUID second = insertOutboxEvent(DESTINATION_TOPIC, "second");
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.received::size, equalTo(2));
+
+        assertThat(testReceiver.received.stream().map(record -> new String(record.value(), StandardCharsets.UTF_8)).toList(), containsInAnyOrder("first", "second"));
+        assertThat(testReceiver.received.stream().map(record -> header(record, OutboxRelayService.OUTBOX_ID_HEADER_KEY)).toList(),
+                containsInAnyOrder(first.toString(), second.toString()));
+        assertThat(header(testReceiver.received.get(0), EventTimestamps.ORIGIN_TIMESTAMP_HEADER_KEY), equalTo("1"));
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> jdbcTemplate.queryForList("SELECT id FROM outbox_event", UUID.class), empty());
+    }
+
+    @Test
+    public void testRelay_MarkedAsPublished() {
+        properties.getOutboxRelay().setDeleteAfterPublish(false);
+        UUID id = insertOutboxEvent(DESTINATION_TOPIC, "published");
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testReceiver.received::size, equalTo(1));
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> publishedAt(id), notNullValue());
+
+        // Not relayed again.
+        Awaitility.await().pollDelay(1, TimeUnit.SECONDS).until(() -> true);
+        assertThat(testReceiver.received, hasSize(1));
+    }
+
+    /**
+     * A failed send rolls back the batch, so its outbox events are neither deleted nor marked, and remain to be relayed
+     * again.
+     */
+    @Test
+    public void testRelay_FailedSendNotPublished() {
+        properties.getOutboxRelay().setDeleteAfterPublish(false);
+        UUID id = insertOutboxEvent(INVALID_DESTINATION, "failed");
+
+        Awaitility.await().pollDelay(2, TimeUnit.SECONDS).until(() -> true);
+
+        assertThat(jdbcTemplate.queryForList("SELECT id FROM outbox_event", UUID.class), contains(id));
+        assertThat(publishedAt(id), nullValue());
+        jdbcTemplate.update("DELETE FROM outbox_event WHERE id = ?", id);
+    }
+
+    private UUID insertOutboxEvent(String destination, String payload) {
+        UUID id = TimeOrderedUuid.generate();
+        jdbcTemplate.update("INSERT INTO outbox_event (id, destination, payload, timestamp, version, origin_timestamp, inbound_timestamp, consumed_timestamp) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)", id, destination, payload, System.currentTimeMillis(), "v1", 1L, 2L, 3L);
+        return id;
+    }
+
+    private Object publishedAt(UUID id) {
+        return jdbcTemplate.queryForObject("SELECT published_at FROM outbox_event WHERE id = ?", Object.class, id);
+    }
+
+    private static String header(ConsumerRecord<String, byte[]> record, String key) {
+        return new String(record.headers().lastHeader(key).value(), StandardCharsets.UTF_8);
+    }
+}
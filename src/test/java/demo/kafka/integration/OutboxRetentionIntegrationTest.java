@@ -0,0 +1,86 @@
+package demo.kafka.integration;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import demo.kafka.lib.TimeOrderedUuid;
+import demo.kafka.repository.OutboxEventRepository;
+import demo.kafka.service.OutboxRetentionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+@Slf4j
+@EmbeddedKafka(controlledShutdown = true)
+@TestPropertySource(properties = {
+        "kafkademo.outboxRetention.mode=purge",
+        "kafkademo.outboxRetention.minAge=1h",
+        "kafkademo.outboxRetention.batchSize=2",
+        // The batches are purged by the test.
+        "kafkademo.outboxRetention.purgeInterval=PT1H"
+})
+public class OutboxRetentionIntegrationTest extends IntegrationTestBase {
+
+    @Autowired
+    private OutboxRetentionService outboxRetentionService;
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        outboxEventRepository.deleteAll();
+    }
+
+    /**
+     * Three outbox events are older than the min age and are purged two at a time, whereas the recent one is kept.  The
+     * old ones have random Ids, as written before the Ids were time ordered, so must be purged by their timestamp.
+     */
+    @Test
+    public void testPurge_OldOutboxEventsPurgedInBatches() {
+        long old = System.currentTimeMillis() - Duration.ofHours(2).toMillis();
+        for (int i = 0; i < 3; i++) {
+            insertOutboxEvent(UUID.randomUUID(), old + i);
+        }
+        UUID recent = TimeOrderedUuid.generate();
+        insertOutboxEvent(recent, System.currentTimeMillis());
+        double purged = meterRegistry.get(OutboxRetentionService.PURGED).counter().count();
+
+        assertThat(outboxRetentionService.purgeBatch(), equalTo(2));
+        assertThat(outboxRetentionService.purgeBatch(), equalTo(1));
+        assertThat(outboxRetentionService.purgeBatch(), equalTo(0));
+
+        assertThat(jdbcTemplate.queryForList("SELECT id FROM outbox_event", UUID.class), contains(recent));
+        assertThat(meterRegistry.get(OutboxRetentionService.PURGED).counter().count() - purged, equalTo(3.0));
+    }
+
+    /**
+     * The table size is only supported on Postgres.
+     */
+    @Test
+    public void testTableSizeNotRegisteredOnH2() {
+        assertThat(meterRegistry.find(OutboxRetentionService.TABLE_SIZE).gauge(), nullValue());
+    }
+
+    private void insertOutboxEvent(UUID id, long timestamp) {
+        jdbcTemplate.update("INSERT INTO outbox_event (id, destination, payload, timestamp, version) VALUES (?, ?, ?, ?, ?)",
+                id, "demo-outbox-outbound", "payload", timestamp, "v1");
+    }
+}
@@ -0,0 +1,66 @@
+package demo.kafka.lib;
+
+import java.util.concurrent.CompletableFuture;
+
+import demo.kafka.exception.KafkaDemoException;
+import demo.kafka.exception.KafkaDemoRetryableException;
+import demo.kafka.properties.KafkaDemoProperties;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.NotLeaderOrFollowerException;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaProducerException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@ExtendWith(MockitoExtension.class)
+public class KafkaClientTest {
+
+    @Mock
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @Mock
+    private KafkaDemoProperties properties;
+
+    @InjectMocks
+    private KafkaClient kafkaClient;
+
+    private final ProducerRecord<String, String> record = new ProducerRecord<>("topic", "key", "payload");
+
+    @Test
+    public void testAwait_Success() {
+        SendResult<String, String> sendResult = new SendResult<>(record, null);
+
+        assertThat(kafkaClient.await(CompletableFuture.completedFuture(sendResult)), sameInstance(sendResult));
+    }
+
+    /**
+     * Spring wraps the producer's exception, so the retriable cause is found in the cause chain.
+     */
+    @Test
+    public void testAwait_RetriableError() {
+        CompletableFuture<SendResult<String, String>> result = CompletableFuture.failedFuture(
+                new KafkaProducerException(record, "Send failed", new NotLeaderOrFollowerException("Not leader")));
+
+        KafkaDemoRetryableException e = assertThrows(KafkaDemoRetryableException.class, () -> kafkaClient.await(result));
+        assertThat(e.getCause(), instanceOf(KafkaProducerException.class));
+    }
+
+    @Test
+    public void testAwait_NonRetriableError() {
+        CompletableFuture<SendResult<String, String>> result = CompletableFuture.failedFuture(
+                new KafkaProducerException(record, "Send failed", new RecordTooLargeException("Too large")));
+
+        KafkaDemoException e = assertThrows(KafkaDemoException.class, () -> kafkaClient.await(result));
+        assertThat(e.getCause(), instanceOf(KafkaProducerException.class));
+    }
+}
@@ -0,0 +1,43 @@
+package demo.kafka.lib;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class TimeOrderedUuidTest {
+
+    @Test
+    public void testVersionAndVariant() {
+        UUID uuid = TimeOrderedUuid.generate();
+
+        assertThat(uuid.version(), equalTo(7));
+        assertThat(uuid.variant(), equalTo(2));
+    }
+
+    @Test
+    public void testTimestampIsTheEpochMillis() {
+        long before = System.currentTimeMillis();
+        UUID uuid = TimeOrderedUuid.generate();
+
+        assertThat(uuid.getMostSignificantBits() >>> 16, lessThanOrEqualTo(System.currentTimeMillis() + 1));
+        assertThat(uuid.getMostSignificantBits() >>> 16, greaterThan(before - 1));
+    }
+
+    /**
+     * Many more UUIDs are generated than fit in the sequence for a single milli, yet each sorts after the last.
+     */
+    @Test
+    public void testStrictlyIncreasing() {
+        UUID last = TimeOrderedUuid.generate();
+        for (int i = 0; i < 100_000; i++) {
+            UUID next = TimeOrderedUuid.generate();
+            assertThat(Long.compareUnsigned(next.getMostSignificantBits(), last.getMostSignificantBits()), greaterThan(0));
+            last = next;
+        }
+    }
+}
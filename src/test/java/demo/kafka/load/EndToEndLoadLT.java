@@ -0,0 +1,246 @@
+package demo.kafka.load;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.integration.IntegrationTestBase;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.mapper.JsonMapper;
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.messaging.handler.annotation.Payload;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+/**
+ * Drives load through the idempotent, non-idempotent and outbox paths, against embedded Kafka, a WireMock thirdparty
+ * and H2, and reports the end to end throughput and latency of each.  Run with mvn test -Pload.
+ *
+ * The load is configured by system properties:
+ * - load.events: the number of events sent to each path.
+ * - load.duplicateRatio: the proportion of events that are redeliveries of an event already sent.
+ * - load.keyCardinality: the number of distinct keys.
+ * - load.payloadBytes: the size of the event data.
+ * - load.thirdpartyLatencyMs: the delay of each thirdparty response.
+ * - load.timeoutSeconds: the longest to wait for the events to be processed.
+ * Any kafkademo property, such as kafkademo.listenerMode, can also be set as a system property.
+ *
+ * Latency is measured from the send of the inbound event to the receipt of the outbound event, or to the write of the
+ * outbox event at millisecond resolution.  The results are also written to target/load.
+ */
+@Slf4j
+@EmbeddedKafka(controlledShutdown = true, partitions = 10, topics = { EndToEndLoadLT.IDEMPOTENT_TOPIC, EndToEndLoadLT.NON_IDEMPOTENT_TOPIC, EndToEndLoadLT.OUTBOX_TOPIC, EndToEndLoadLT.OUTBOUND_TOPIC })
+public class EndToEndLoadLT extends IntegrationTestBase {
+
+    static final String IDEMPOTENT_TOPIC = "demo-idempotent-inbound-topic";
+    static final String NON_IDEMPOTENT_TOPIC = "demo-non-idempotent-inbound-topic";
+    static final String OUTBOX_TOPIC = "demo-idempotent-with-outbox-inbound-topic";
+    static final String OUTBOUND_TOPIC = "demo-outbound-topic";
+
+    private static final int EVENTS = Integer.getInteger("load.events", 10_000);
+    private static final double DUPLICATE_RATIO = Double.parseDouble(System.getProperty("load.duplicateRatio", "0.1"));
+    private static final int KEY_CARDINALITY = Integer.getInteger("load.keyCardinality", 1_000);
+    private static final int PAYLOAD_BYTES = Integer.getInteger("load.payloadBytes", 256);
+    private static final int THIRDPARTY_LATENCY_MS = Integer.getInteger("load.thirdpartyLatencyMs", 5);
+    private static final int TIMEOUT_SECONDS = Integer.getInteger("load.timeoutSeconds", 300);
+
+    @Autowired
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @Autowired
+    private OutboundListener outboundListener;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Configuration
+    static class TestConfig {
+
+        @Bean
+        public OutboundListener outboundListener() {
+            return new OutboundListener();
+        }
+    }
+
+    /**
+     * Records the latency of each outbound event, from the send time carried in its payload.
+     */
+    public static class OutboundListener {
+        private static final String PAYLOAD_PREFIX = "payload: ";
+
+        final Queue<Long> latenciesMicros = new ConcurrentLinkedQueue<>();
+
+        @KafkaListener(groupId = "EndToEndLoadLT", topics = OUTBOUND_TOPIC, autoStartup = "true")
+        void receive(@Payload final String payload) {
+            final long receivedMicros = nowMicros();
+            final int data = payload.indexOf(PAYLOAD_PREFIX) + PAYLOAD_PREFIX.length();
+            // Ignores the outbound events of other tests sharing the topic.
+            if (data >= PAYLOAD_PREFIX.length() && payload.indexOf(':', data) > 0) {
+                latenciesMicros.add(receivedMicros - sentAtMicros(payload.substring(data)));
+            }
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        super.setUp();
+        stubFor(get(urlPathMatching("/api/kafkaidempotentconsumerdemo/.*"))
+                .willReturn(aResponse().withStatus(200).withHeader("Content-Type", "text/plain").withBody("Success")
+                        .withFixedDelay(THIRDPARTY_LATENCY_MS)));
+        outboundListener.latenciesMicros.clear();
+        jdbcTemplate.update("DELETE FROM outbox_event");
+    }
+
+    @Test
+    public void testIdempotentConsumer() throws Exception {
+        final long started = System.nanoTime();
+        final int unique = sendLoad(IDEMPOTENT_TOPIC);
+        awaitCount(outboundListener.latenciesMicros::size, unique);
+        report("idempotent", started, new ArrayList<>(outboundListener.latenciesMicros));
+    }
+
+    @Test
+    public void testNonIdempotentConsumer() throws Exception {
+        final long started = System.nanoTime();
+        sendLoad(NON_IDEMPOTENT_TOPIC);
+        // Every event is processed, including the duplicates.
+        awaitCount(outboundListener.latenciesMicros::size, EVENTS);
+        report("non-idempotent", started, new ArrayList<>(outboundListener.latenciesMicros));
+    }
+
+    @Test
+    public void testIdempotentConsumerWithOutbox() throws Exception {
+        final long started = System.nanoTime();
+        final int unique = sendLoad(OUTBOX_TOPIC);
+        awaitCount(() -> jdbcTemplate.queryForObject("SELECT COUNT(*) FROM outbox_event", Integer.class), unique);
+        final List<Long> latenciesMicros = jdbcTemplate.query("SELECT payload, timestamp FROM outbox_event",
+                (rs, rowNum) -> rs.getLong("timestamp") * 1000 - sentAtMicros(rs.getString("payload")));
+        report("outbox", started, latenciesMicros);
+    }
+
+    /**
+     * Sends the configured number of events, of which the configured ratio are duplicates of an event already sent, and
+     * returns the number of unique events.  A duplicate has the same event Id and key as the original, and is stamped
+     * with its own send time.
+     */
+    private int sendLoad(final String topic) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final List<String[]> sent = new ArrayList<>(EVENTS);
+        final String padding = "x".repeat(Math.max(0, PAYLOAD_BYTES - 17));
+        int unique = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            final String[] event;
+            if (!sent.isEmpty() && random.nextDouble() < DUPLICATE_RATIO) {
+                event = sent.get(random.nextInt(sent.size()));
+            } else {
+                event = new String[] { UUID.randomUUID().toString(), "key-" + random.nextInt(KEY_CARDINALITY) };
+                sent.add(event);
+                unique++;
+            }
+            final String payload = JsonMapper.writeToJson(DemoInboundEvent.builder()
+                    .id(event[1])
+                    .data(nowMicros() + ":" + padding)
+                    .build());
+            final ProducerRecord<String, String> record = new ProducerRecord<>(topic, event[1], payload);
+            record.headers().add(KafkaClient.EVENT_ID_HEADER_KEY, event[0].getBytes(StandardCharsets.UTF_8));
+            kafkaTemplate.send(record);
+        }
+        kafkaTemplate.flush();
+        log.info("Sent [" + EVENTS + "] events to " + topic + ", of which [" + unique + "] unique");
+        return unique;
+    }
+
+    private static void awaitCount(final Callable<Integer> count, final int expected) {
+        Awaitility.await().atMost(TIMEOUT_SECONDS, TimeUnit.SECONDS).pollInterval(100, TimeUnit.MILLISECONDS)
+                .until(count, greaterThanOrEqualTo(expected));
+    }
+
+    private static long nowMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+
+    /**
+     * The event data is the send time in epoch microseconds, followed by the padding.
+     */
+    private static long sentAtMicros(final String data) {
+        return Long.parseLong(data.substring(0, data.indexOf(':')));
+    }
+
+    private static void report(final String path, final long startedNanos, final List<Long> latenciesMicros) throws Exception {
+        final double elapsedSeconds = (System.nanoTime() - startedNanos) / 1e9;
+        final long[] sorted = latenciesMicros.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        final LoadResult result = LoadResult.builder()
+                .path(path)
+                .events(EVENTS)
+                .processed(sorted.length)
+                .duplicateRatio(DUPLICATE_RATIO)
+                .keyCardinality(KEY_CARDINALITY)
+                .payloadBytes(PAYLOAD_BYTES)
+                .thirdpartyLatencyMs(THIRDPARTY_LATENCY_MS)
+                .throughputPerSecond(sorted.length / elapsedSeconds)
+                .latencyMillis(Map.of(
+                        "p50", percentile(sorted, 0.50),
+                        "p95", percentile(sorted, 0.95),
+                        "p99", percentile(sorted, 0.99),
+                        "max", percentile(sorted, 1.0)))
+                .build();
+        final String json = JsonMapper.writeToJson(result);
+        log.info("Load result: " + json);
+        final File directory = new File("target/load");
+        directory.mkdirs();
+        Files.writeString(new File(directory, path + ".json").toPath(), json);
+    }
+
+    private static double percentile(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+
+    @Builder
+    @Value
+    static class LoadResult {
+        String path;
+        int events;
+        int processed;
+        double duplicateRatio;
+        int keyCardinality;
+        int payloadBytes;
+        int thirdpartyLatencyMs;
+        double throughputPerSecond;
+        Map<String, Double> latencyMillis;
+    }
+}
@@ -0,0 +1,210 @@
+package demo.kafka.load;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import demo.kafka.KafkaDemoApplication;
+import demo.kafka.event.DemoInboundEvent;
+import demo.kafka.lib.KafkaClient;
+import demo.kafka.mapper.JsonMapper;
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+/**
+ * Starts the application in a new JVM, against embedded Kafka, a WireMock thirdparty and H2, and reports the time from
+ * launching the JVM to receiving the first outbound event.  Run with mvn test -Pload -Dtest=StartupLT, and compare the
+ * results with and without Spring AOT and a CDS archive, as described in the README.
+ *
+ * The runs are configured by system properties:
+ * - startup.runs: the number of times the application is started.
+ * - startup.jvmArgs: the arguments of the application's JVM, such as -XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true.
+ * - startup.timeoutSeconds: the longest to wait for the first outbound event of each run.
+ * - startup.applicationJar: the jar of the application's classes, such as target/kafka-idempotent-consumer-2.0.0.jar.original,
+ *   in place of target/classes.  Required for a CDS archive, as CDS only archives classes loaded from jars.
+ *
+ * The application runs from the test classpath, without the test classes, so it is not repackaged as a fat jar.  The
+ * listeners start at the latest offset, so an inbound event is sent every 100ms until the first outbound event for the
+ * run is received.  The results are also written to target/load.
+ */
+@Slf4j
+public class StartupLT {
+
+    static final String INBOUND_TOPIC = "demo-idempotent-inbound-topic";
+    static final String OUTBOUND_TOPIC = "demo-outbound-topic";
+
+    private static final int RUNS = Integer.getInteger("startup.runs", 5);
+    private static final String JVM_ARGS = System.getProperty("startup.jvmArgs", "");
+    private static final int TIMEOUT_SECONDS = Integer.getInteger("startup.timeoutSeconds", 120);
+    private static final String APPLICATION_JAR = System.getProperty("startup.applicationJar", "");
+
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+    private WireMockServer wireMockServer;
+    private KafkaProducer<String, String> producer;
+    private KafkaConsumer<String, String> consumer;
+
+    @BeforeEach
+    public void setUp() {
+        embeddedKafkaBroker = new EmbeddedKafkaBroker(1, true, 1, INBOUND_TOPIC, OUTBOUND_TOPIC);
+        embeddedKafkaBroker.afterPropertiesSet();
+        wireMockServer = new WireMockServer(options().dynamicPort());
+        wireMockServer.start();
+        wireMockServer.stubFor(get(urlPathMatching("/api/kafkaidempotentconsumerdemo/.*"))
+                .willReturn(aResponse().withStatus(200).withHeader("Content-Type", "text/plain").withBody("Success")));
+        producer = new KafkaProducer<>(Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, embeddedKafkaBroker.getBrokersAsString()),
+                new StringSerializer(), new StringSerializer());
+        consumer = new KafkaConsumer<>(Map.of(
+                ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, embeddedKafkaBroker.getBrokersAsString(),
+                ConsumerConfig.GROUP_ID_CONFIG, "StartupLT",
+                ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest"),
+                new StringDeserializer(), new StringDeserializer());
+        consumer.subscribe(List.of(OUTBOUND_TOPIC));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        consumer.close();
+        producer.close();
+        wireMockServer.stop();
+        embeddedKafkaBroker.destroy();
+    }
+
+    @Test
+    public void testTimeToFirstEvent() throws Exception {
+        final long[] startupMillis = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            startupMillis[run] = timeToFirstEvent(run);
+            log.info("Run [" + run + "] consumed its first event after [" + startupMillis[run] + "]ms");
+        }
+        report(startupMillis);
+    }
+
+    /**
+     * Each run sends its events with its own key, so that the outbound events of an earlier run are ignored.
+     */
+    private long timeToFirstEvent(final int run) throws Exception {
+        final String key = "startup-" + run + "-" + UUID.randomUUID();
+        final File logFile = new File("target/load/startup-" + run + ".log");
+        logFile.getParentFile().mkdirs();
+        final long started = System.nanoTime();
+        final Process application = new ProcessBuilder(command())
+                .redirectErrorStream(true)
+                .redirectOutput(logFile)
+                .start();
+        try {
+            final long deadline = started + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (System.nanoTime() < deadline) {
+                if (!application.isAlive()) {
+                    throw new IllegalStateException("Application exited with [" + application.exitValue() + "], see " + logFile);
+                }
+                send(key);
+                for (ConsumerRecord<String, String> record : consumer.poll(Duration.ofMillis(100))) {
+                    if (key.equals(record.key())) {
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                    }
+                }
+            }
+            throw new IllegalStateException("No outbound event within [" + TIMEOUT_SECONDS + "] seconds, see " + logFile);
+        } finally {
+            application.destroy();
+            if (!application.waitFor(30, TimeUnit.SECONDS)) {
+                application.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private List<String> command() {
+        final List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(Arrays.stream(JVM_ARGS.split("\\s+")).filter(arg -> !arg.isEmpty()).toList());
+        command.add("-cp");
+        command.add(applicationClassPath());
+        command.add(KafkaDemoApplication.class.getName());
+        command.add("--server.port=0");
+        command.add("--kafka.bootstrap-servers=" + embeddedKafkaBroker.getBrokersAsString());
+        command.add("--kafkademo.thirdpartyEndpoint=http://localhost:" + wireMockServer.port() + "/api/kafkaidempotentconsumerdemo/");
+        // H2 does not support partitioning.
+        command.add("--kafkademo.processedEventRetention.enabled=false");
+        command.add("--spring.datasource.driverClassName=org.h2.Driver");
+        command.add("--spring.datasource.url=jdbc:h2:mem:startup;SCHEMA_SEARCH_PATH=kafka_demo_idempotent_consumer;MODE=PostgreSQL;DB_CLOSE_ON_EXIT=FALSE");
+        command.add("--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect");
+        return command;
+    }
+
+    /**
+     * The test classpath less the test classes, whose test configurations would otherwise be found by the application's
+     * component scan, and with the application jar in place of the classes when given.  Surefire runs the tests from a
+     * manifest only jar, so the test classpath is taken from the property it sets.
+     */
+    private static String applicationClassPath() {
+        final String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        return Arrays.stream(classPath.split(File.pathSeparator))
+                .filter(entry -> !entry.endsWith("test-classes"))
+                .map(entry -> !APPLICATION_JAR.isEmpty() && entry.endsWith("classes") ? APPLICATION_JAR : entry)
+                .reduce((first, second) -> first + File.pathSeparator + second)
+                .orElseThrow();
+    }
+
+    private void send(final String key) {
+        final String payload = JsonMapper.writeToJson(DemoInboundEvent.builder().id(key).data("startup").build());
+        final ProducerRecord<String, String> record = new ProducerRecord<>(INBOUND_TOPIC, key, payload);
+        record.headers().add(KafkaClient.EVENT_ID_HEADER_KEY, UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+        producer.send(record);
+    }
+
+    private static void report(final long[] startupMillis) throws Exception {
+        final long[] sorted = startupMillis.clone();
+        Arrays.sort(sorted);
+        final StartupResult result = StartupResult.builder()
+                .runs(RUNS)
+                .jvmArgs(JVM_ARGS)
+                .applicationJar(APPLICATION_JAR)
+                .timeToFirstEventMillis(Map.of(
+                        "min", (double) sorted[0],
+                        "median", (double) sorted[sorted.length / 2],
+                        "mean", Arrays.stream(sorted).average().orElse(0),
+                        "max", (double) sorted[sorted.length - 1]))
+                .build();
+        final String json = JsonMapper.writeToJson(result);
+        log.info("Startup result: " + json);
+        final File directory = new File("target/load");
+        directory.mkdirs();
+        Files.writeString(new File(directory, "startup.json").toPath(), json);
+    }
+
+    @Builder
+    @Value
+    static class StartupResult {
+        int runs;
+        String jvmArgs;
+        String applicationJar;
+        Map<String, Double> timeToFirstEventMillis;
+    }
+}
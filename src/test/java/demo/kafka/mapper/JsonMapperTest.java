@@ -0,0 +1,37 @@
+package demo.kafka.mapper;
+
+import java.nio.charset.StandardCharsets;
+
+import demo.kafka.event.DemoInboundEvent;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class JsonMapperTest {
+
+    @Test
+    public void testReadFromJsonBytes() {
+        byte[] json = "{\"id\":\"1\",\"data\":\"données\",\"unknown\":true}".getBytes(StandardCharsets.UTF_8);
+
+        DemoInboundEvent event = JsonMapper.readFromJson(json, DemoInboundEvent.class);
+
+        assertThat(event.getId(), equalTo("1"));
+        assertThat(event.getData(), equalTo("données"));
+    }
+
+    @Test
+    public void testReadFromJsonBytesMatchesString() {
+        String json = JsonMapper.writeToJson(DemoInboundEvent.builder().id("1").data("event data").build());
+
+        assertThat(JsonMapper.readFromJson(json.getBytes(StandardCharsets.UTF_8), DemoInboundEvent.class),
+                equalTo(JsonMapper.readFromJson(json, DemoInboundEvent.class)));
+    }
+
+    @Test
+    public void testInvalidJsonThrowsMappingException() {
+        assertThrows(MappingException.class, () -> JsonMapper.readFromJson("{\"id\":".getBytes(StandardCharsets.UTF_8), DemoInboundEvent.class));
+        assertThrows(MappingException.class, () -> JsonMapper.readFromJson("{\"id\":", DemoInboundEvent.class));
+    }
+}
@@ -0,0 +1,51 @@
+package demo.kafka.properties;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.context.ConfigurationPropertiesAutoConfiguration;
+import org.springframework.boot.context.properties.bind.validation.BindValidationException;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class KafkaDemoPropertiesTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(ConfigurationPropertiesAutoConfiguration.class))
+            .withUserConfiguration(KafkaDemoProperties.class)
+            .withPropertyValues(
+                    "kafkademo.id=demo",
+                    "kafkademo.thirdpartyEndpoint=http://localhost:9001/api/kafkaidempotentconsumerdemo",
+                    "kafkademo.outboundTopic=demo-outbound-topic");
+
+    @Test
+    public void testValidPropertiesBound() {
+        contextRunner.withPropertyValues("kafkademo.parallelListener.lanes=4").run(context -> {
+            assertThat(context.getStartupFailure(), nullValue());
+            assertThat(context.getBean(KafkaDemoProperties.class).getParallelListener().getLanes(), equalTo(4));
+        });
+    }
+
+    /**
+     * The constraints of the nested properties are enforced, so an invalid value fails the startup.
+     */
+    @Test
+    public void testInvalidPropertiesRejected() {
+        contextRunner.withPropertyValues("kafkademo.parallelListener.lanes=0").run(context ->
+                assertThat(rootCause(context.getStartupFailure()), instanceOf(BindValidationException.class)));
+        contextRunner.withPropertyValues("kafkademo.flowControl.pollBudget=1.5").run(context ->
+                assertThat(rootCause(context.getStartupFailure()), instanceOf(BindValidationException.class)));
+    }
+
+    private static Throwable rootCause(Throwable failure) {
+        assertThat(failure, notNullValue());
+        while (failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+}
@@ -0,0 +1,54 @@
+package demo.kafka.service;
+
+import javax.sql.DataSource;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import demo.kafka.properties.KafkaDemoProperties.OutboxRetentionMode;
+import demo.kafka.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OutboxRetentionServiceTest {
+
+    /**
+     * Each outbox event would be deleted before the outbox relay could relay it.
+     */
+    @Test
+    public void testDeleteOnInsertRejectedWithOutboxRelay() {
+        KafkaDemoProperties properties = new KafkaDemoProperties();
+        properties.getOutboxRetention().setMode(OutboxRetentionMode.DELETE_ON_INSERT);
+        properties.getOutboxRelay().setEnabled(true);
+
+        assertThrows(IllegalStateException.class, () -> new OutboxRetentionService(properties,
+                mock(OutboxEventRepository.class), mock(JdbcTemplate.class), new SimpleMeterRegistry()));
+    }
+
+    /**
+     * The backlog is registered without the outbox relay, and counted once however often it is scraped within the
+     * refresh interval.
+     */
+    @Test
+    public void testBacklogCounted_CachedBetweenScrapes() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.getDataSource()).thenReturn(mock(DataSource.class));
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class))).thenReturn(3L, 5L);
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        new OutboxRetentionService(new KafkaDemoProperties(), mock(OutboxEventRepository.class), jdbcTemplate, meterRegistry);
+
+        assertThat(meterRegistry.get(OutboxRetentionService.BACKLOG).gauge().value(), equalTo(3.0));
+        assertThat(meterRegistry.get(OutboxRetentionService.BACKLOG).gauge().value(), equalTo(3.0));
+        verify(jdbcTemplate, times(1)).queryForObject(anyString(), eq(Long.class));
+    }
+}
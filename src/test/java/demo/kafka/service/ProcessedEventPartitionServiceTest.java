@@ -0,0 +1,72 @@
+package demo.kafka.service;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import javax.sql.DataSource;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProcessedEventPartitionServiceTest {
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final LocalDate today = LocalDate.now(ZoneOffset.UTC);
+
+    private KafkaDemoProperties properties;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new KafkaDemoProperties();
+        jdbcTemplate = mock(JdbcTemplate.class);
+    }
+
+    /**
+     * The partitions are created with the processed event retention disabled, as it is by default.
+     */
+    @Test
+    public void testCreatesPartitionsAhead() throws Exception {
+        DataSource dataSource = dataSource("PostgreSQL");
+        when(jdbcTemplate.getDataSource()).thenReturn(dataSource);
+
+        new ProcessedEventPartitionService(properties, jdbcTemplate).createPartitions();
+
+        for (int i = 0; i <= properties.getProcessedEventRetention().getPartitionsAhead(); i++) {
+            LocalDate day = today.plusDays(i);
+            verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS processed_event_p" + PARTITION_SUFFIX.format(day)
+                    + " PARTITION OF processed_event FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+        }
+    }
+
+    @Test
+    public void testNothingCreatedWhenNotPartitioned() throws Exception {
+        DataSource dataSource = dataSource("H2");
+        when(jdbcTemplate.getDataSource()).thenReturn(dataSource);
+
+        new ProcessedEventPartitionService(properties, jdbcTemplate).createPartitions();
+
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    private static DataSource dataSource(String databaseProductName) throws Exception {
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        when(metaData.getDatabaseProductName()).thenReturn(databaseProductName);
+        Connection connection = mock(Connection.class);
+        when(connection.getMetaData()).thenReturn(metaData);
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        return dataSource;
+    }
+}
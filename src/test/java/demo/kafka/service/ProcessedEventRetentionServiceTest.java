@@ -0,0 +1,92 @@
+package demo.kafka.service;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import demo.kafka.properties.KafkaDemoProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProcessedEventRetentionServiceTest {
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final LocalDate today = LocalDate.now(ZoneOffset.UTC);
+
+    private KafkaDemoProperties properties;
+    private JdbcTemplate jdbcTemplate;
+    private ProcessedEventRetentionService service;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new KafkaDemoProperties();
+        properties.getProcessedEventRetention().setEnabled(true);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        service = new ProcessedEventRetentionService(properties, jdbcTemplate);
+    }
+
+    /**
+     * Partitions older than the dedup window are detached concurrently and dropped, finalizing an interrupted detach, and
+     * dropping one already detached.
+     */
+    @Test
+    public void testDropsPartitionsOlderThanDedupWindow() {
+        String attached = partition(today.minusDays(10));
+        String detachPending = partition(today.minusDays(11));
+        String detached = partition(today.minusDays(12));
+        String recent = partition(today.minusDays(1));
+        when(jdbcTemplate.queryForList(anyString())).thenReturn(List.of(
+                row(attached, false), row(detachPending, true), row(detached, null), row(recent, false)));
+
+        service.dropPartitions();
+
+        verify(jdbcTemplate).execute("ALTER TABLE processed_event DETACH PARTITION " + attached + " CONCURRENTLY");
+        verify(jdbcTemplate).execute("ALTER TABLE processed_event DETACH PARTITION " + detachPending + " FINALIZE");
+        verify(jdbcTemplate, never()).execute(startsWith("ALTER TABLE processed_event DETACH PARTITION " + detached));
+        verify(jdbcTemplate).execute("DROP TABLE IF EXISTS " + attached);
+        verify(jdbcTemplate).execute("DROP TABLE IF EXISTS " + detachPending);
+        verify(jdbcTemplate).execute("DROP TABLE IF EXISTS " + detached);
+        verify(jdbcTemplate, never()).execute(startsWith("ALTER TABLE processed_event DETACH PARTITION " + recent));
+        verify(jdbcTemplate, never()).execute("DROP TABLE IF EXISTS " + recent);
+    }
+
+    /**
+     * A partition that could not be detached is left attached, and retried on the next run.
+     */
+    @Test
+    public void testNotDroppedWhenDetachFails() {
+        String attached = partition(today.minusDays(10));
+        when(jdbcTemplate.queryForList(anyString())).thenReturn(List.of(row(attached, false)));
+        doThrow(new CannotAcquireLockException("Detach in progress"))
+                .when(jdbcTemplate).execute("ALTER TABLE processed_event DETACH PARTITION " + attached + " CONCURRENTLY");
+
+        service.dropPartitions();
+
+        verify(jdbcTemplate, never()).execute("DROP TABLE IF EXISTS " + attached);
+    }
+
+    private static String partition(LocalDate day) {
+        return "processed_event_p" + PARTITION_SUFFIX.format(day);
+    }
+
+    private static Map<String, Object> row(String partition, Boolean detachPending) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("relname", partition);
+        row.put("inhdetachpending", detachPending);
+        return row;
+    }
+}